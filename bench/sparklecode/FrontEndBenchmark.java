@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time taken by each stage before the interpreter: scanning, parsing and
+ * resolving a large generated program. Each stage is given the output of
+ * the one before, made once in setup, so only that stage is measured.
+ * @author Will
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+  /**
+   * code repeated to make the source, covering every kind of statement
+   * and expression
+   */
+  private static final String UNIT = 
+          "/* block comment /* nested */ */\n"
+          + "class Shape {\n"
+          + "  init(name, sides) {\n"
+          + "    this.name = name;\n"
+          + "    this.sides = sides;\n"
+          + "  }\n"
+          + "  describe() {\n"
+          + "    return this.name + \" with sides\";\n"
+          + "  }\n"
+          + "}\n"
+          + "class Square < Shape {\n"
+          + "  init(size) {\n"
+          + "    super.init(\"square\", 4);\n"
+          + "    this.size = size;\n"
+          + "  }\n"
+          + "  area() { return this.size * this.size; }\n"
+          + "}\n"
+          + "fn fib(n) {\n"
+          + "  if (n < 2) return n;\n"
+          + "  return fib(n - 1) + fib(n - 2);\n"
+          + "}\n"
+          + "fn counter() {\n"
+          + "  var count = 0;\n"
+          + "  fn next() {\n"
+          + "    count = count + 1;\n"
+          + "    return count;\n"
+          + "  }\n"
+          + "  return next;\n"
+          + "}\n"
+          + "var total = 0;\n"
+          + "for (var i = 0; i < 10; i = i + 1) {\n"
+          + "  if (i == 3 or i >= 8 and !(i == 9)) total = total + i * 2 - 1;\n"
+          + "  else { total = total + -i / 2; }\n"
+          + "}\n"
+          + "while (total > 100) total = total - 1;\n"
+          + "print Square(3).area() + fib(5);\n";
+  
+  /**
+   * number of copies of the unit in the source
+   */
+  @Param({"100", "1000"})
+  public int copies;
+  
+  private String source;
+  private List<Token> tokens;
+  private List<Stmt> statements;
+  
+  /**
+   * make the source and the input of every stage
+   */
+  @Setup
+  public void setup() {
+    source = source(copies);
+    tokens = new Scanner(source, 1, FrontEndBenchmark::fail).scanTokens();
+    statements = new Parser(tokens, FrontEndBenchmark::fail).parse();
+  }
+  
+  /**
+   * source made of copies of a unit of code. each copy is wrapped in a
+   * function so the names it declares do not clash
+   * @param copies number of copies
+   * @return source
+   */
+  static String source(int copies) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < copies; i++) {
+      builder.append("fn unit").append(i).append("() {\n")
+              .append(UNIT).append("}\n");
+    }
+    return builder.toString();
+  }
+  
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source, 1, FrontEndBenchmark::fail).scanTokens();
+  }
+  
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens, FrontEndBenchmark::fail).parse();
+  }
+  
+  /**
+   * resolving writes the same scopes and slots into the tree every time,
+   * so the tree can be reused
+   * @return resolved tree
+   */
+  @Benchmark
+  public List<Stmt> resolve() {
+    new Resolver(FrontEndBenchmark::fail).resolve(statements);
+    return statements;
+  }
+  
+  @Benchmark
+  public List<Stmt> allStages() {
+    List<Token> scanned = new Scanner(source, 1, FrontEndBenchmark::fail).scanTokens();
+    List<Stmt> parsed = new Parser(scanned, FrontEndBenchmark::fail).parse();
+    new Resolver(FrontEndBenchmark::fail).resolve(parsed);
+    return parsed;
+  }
+  
+  /**
+   * the generated source has no errors, so any error is a broken benchmark
+   */
+  private static void fail(int line, String where, String message) {
+    throw new IllegalStateException("[line " + line + "] Error" + where 
+            + ": " + message);
+  }
+}
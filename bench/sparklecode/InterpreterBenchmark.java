@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time taken by the interpreter for single operations. Every benchmark
+ * runs a compiled loop of LOOPS iterations in a context that already holds
+ * the functions and classes it uses, and is reported per iteration.
+ * emptyLoop measures the loop on its own, to subtract from the others.
+ * @author Will
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  /**
+   * iterations of each benchmark loop
+   */
+  static final int LOOPS = 1000;
+  
+  /**
+   * definitions run once in setup
+   */
+  private static final String DEFINITIONS = 
+          "var a = 1;\n"
+          + "var b = 2;\n"
+          + "var c = 0;\n"
+          + "var s = \"\";\n"
+          + "fn identity(x) { return x; }\n"
+          + "fn locals() {\n"
+          + "  var x = 1;\n"
+          + "  var y = 2;\n"
+          + "  var z;\n"
+          + "  for (var i = 0; i < " + LOOPS + "; i = i + 1) { z = x; x = y; y = z; }\n"
+          + "}\n"
+          + "class Point {\n"
+          + "  init(x, y) { this.x = x; this.y = y; }\n"
+          + "  sum() { return this.x + this.y; }\n"
+          + "}\n"
+          + "var point = Point(1, 2);\n";
+  
+  private final Engine engine = new Engine();
+  private Context context;
+  
+  private Program emptyLoop;
+  private Program globalVariables;
+  private Program localVariables;
+  private Program arithmetic;
+  private Program functionCall;
+  private Program methodCall;
+  private Program fieldAccess;
+  private Program stringConcat;
+  private Program instantiation;
+  
+  @Setup
+  public void setup() {
+    PrintStream discard = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    });
+    context = engine.createContext(discard, System.err);
+    run(compile(DEFINITIONS));
+    
+    emptyLoop = loop("");
+    globalVariables = loop("c = a; a = b; b = c;");
+    localVariables = compile("locals();");
+    arithmetic = loop("c = (a + b) * 3 - a / 2;");
+    functionCall = loop("identity(i);");
+    methodCall = loop("point.sum();");
+    fieldAccess = loop("point.x = point.y;");
+    stringConcat = loop("s = \"ab\" + \"cd\";");
+    instantiation = loop("Point(1, 2);");
+  }
+  
+  /**
+   * compile a loop running body LOOPS times
+   * @param body statements in the loop
+   * @return program
+   */
+  private Program loop(String body) {
+    return compile("for (var i = 0; i < " + LOOPS + "; i = i + 1) { " 
+            + body + " }");
+  }
+  
+  private Program compile(String source) {
+    Program program = engine.compile(source);
+    if (program.hasErrors()) {
+      throw new IllegalStateException("Benchmark code has errors: " 
+              + program.diagnostics());
+    }
+    return program;
+  }
+  
+  private boolean run(Program program) {
+    if (!context.run(program)) {
+      throw new IllegalStateException("Benchmark code had a runtime error. ");
+    }
+    return true;
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean emptyLoop() {
+    return run(emptyLoop);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean globalVariables() {
+    return run(globalVariables);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean localVariables() {
+    return run(localVariables);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean arithmetic() {
+    return run(arithmetic);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean functionCall() {
+    return run(functionCall);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean methodCall() {
+    return run(methodCall);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean fieldAccess() {
+    return run(fieldAccess);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean stringConcat() {
+    return run(stringConcat);
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(LOOPS)
+  public boolean instantiation() {
+    return run(instantiation);
+  }
+}
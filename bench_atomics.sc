@@ -0,0 +1,72 @@
+// adds per second to shared AtomicNumber, Counter and ConcurrentMap
+// values from 1 to 32 tasks at once
+// run with: java -cp build/classes sparklecode.SparkleCode bench_atomics.sc
+
+var adds = 960000;
+
+fn sum(a, b) {
+  return a + b;
+}
+
+fn atomicAdder(atomic, count) {
+  fn run() {
+    for (var i = 0; i < count; i = i + 1) atomic.add(1);
+  }
+  return run;
+}
+
+fn counterAdder(counter, count) {
+  fn run() {
+    for (var i = 0; i < count; i = i + 1) counter.add(1);
+  }
+  return run;
+}
+
+fn mapAdder(map, count) {
+  fn run() {
+    for (var i = 0; i < count; i = i + 1) map.merge("hits", 1, sum);
+  }
+  return run;
+}
+
+// start tasks made by adder, wait for them and print adds per second
+fn measure(name, tasks, label, adder) {
+  var running = List();
+  var start = clock();
+  for (var i = 0; i < tasks; i = i + 1) running.add(spawn(adder(adds / tasks)));
+  for (var i = 0; i < tasks; i = i + 1) join(running.get(i));
+  var seconds = clock() - start;
+  print name + " " + label + " tasks adds/sec: ";
+  print adds / seconds;
+}
+
+var atomic = nil;
+var counter = nil;
+var map = nil;
+
+fn newAtomic(count) {
+  return atomicAdder(atomic, count);
+}
+
+fn newCounter(count) {
+  return counterAdder(counter, count);
+}
+
+fn newMap(count) {
+  return mapAdder(map, count);
+}
+
+var tasks = List(1, 2, 4, 8, 16, 32);
+var names = List("1", "2", "4", "8", "16", "32");
+for (var i = 0; i < tasks.size(); i = i + 1) {
+  atomic = AtomicNumber(0);
+  measure("AtomicNumber", tasks.get(i), names.get(i), newAtomic);
+  counter = Counter();
+  measure("Counter", tasks.get(i), names.get(i), newCounter);
+  map = ConcurrentMap();
+  measure("ConcurrentMap.merge", tasks.get(i), names.get(i), newMap);
+}
+print "final values: ";
+print atomic.get();
+print counter.get();
+print map.get("hits");
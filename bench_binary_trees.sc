@@ -0,0 +1,31 @@
+// allocation heavy: build and walk complete binary trees of many depths
+// based on the benchmarks game binary-trees program
+
+class Node {
+  init(left, right) {
+    this.left = left;
+    this.right = right;
+  }
+  
+  check() {
+    if (this.left == nil) return 1;
+    return 1 + this.left.check() + this.right.check();
+  }
+}
+
+fn tree(depth) {
+  if (depth == 0) return Node(nil, nil);
+  return Node(tree(depth - 1), tree(depth - 1));
+}
+
+var maxDepth = 12;
+var longLived = tree(maxDepth);
+var total = 0;
+
+for (var depth = 4; depth <= maxDepth; depth = depth + 2) {
+  var iterations = 1;
+  for (var i = depth; i < maxDepth; i = i + 1) iterations = iterations * 2;
+  for (var i = 0; i < iterations; i = i + 1) total = total + tree(depth).check();
+}
+
+print total + longLived.check();
@@ -0,0 +1,52 @@
+// messages per second passed between two tasks through channels
+// run with: java -cp build/classes sparklecode.SparkleCode bench_channels.sc
+
+var messages = 200000;
+
+fn producer(channel, count) {
+  fn run() {
+    for (var i = 0; i < count; i = i + 1) channel.send(i);
+    channel.send(nil);
+  }
+  return run;
+}
+
+fn consume(channel) {
+  var received = 0;
+  while (channel.receive() != nil) received = received + 1;
+  return received;
+}
+
+fn report(name, count, start) {
+  var seconds = clock() - start;
+  print name + ": " ;
+  print count / seconds;
+}
+
+var start = clock();
+var bounded = Channel(64);
+var task = spawn(producer(bounded, messages));
+report("bounded(64) messages/sec", consume(bounded), start);
+join(task);
+
+start = clock();
+var unbounded = Channel(nil);
+task = spawn(producer(unbounded, messages));
+report("unbounded messages/sec", consume(unbounded), start);
+join(task);
+
+// two producers merged with select
+start = clock();
+var a = Channel(64);
+var b = Channel(64);
+var ta = spawn(producer(a, messages / 2));
+var tb = spawn(producer(b, messages / 2));
+var done = 0;
+var received = 0;
+while (done < 2) {
+  var result = select(a, b);
+  if (result.value == nil) done = done + 1; else received = received + 1;
+}
+report("select over 2 messages/sec", received, start);
+join(ta);
+join(tb);
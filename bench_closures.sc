@@ -0,0 +1,41 @@
+// closure heavy: callbacks made and called through higher order functions
+
+fn each(count, callback) {
+  for (var i = 0; i < count; i = i + 1) callback(i);
+}
+
+fn compose(f, g) {
+  fn composed(x) {
+    return f(g(x));
+  }
+  return composed;
+}
+
+fn adder(n) {
+  fn add(x) {
+    return x + n;
+  }
+  return add;
+}
+
+fn accumulator() {
+  var sum = 0;
+  fn accumulate(x) {
+    sum = sum + x;
+    return sum;
+  }
+  return accumulate;
+}
+
+var total = 0;
+for (var round = 0; round < 40; round = round + 1) {
+  var pipeline = compose(adder(round), compose(adder(1), adder(2)));
+  var accumulate = accumulator();
+  fn step(i) {
+    accumulate(pipeline(i));
+  }
+  each(500, step);
+  total = total + accumulate(0);
+}
+
+print total;
@@ -0,0 +1,107 @@
+// method dispatch heavy: a simulation of animals sharing a world, calling
+// methods through a three level class hierarchy
+
+class Animal {
+  init(name, energy) {
+    this.name = name;
+    this.energy = energy;
+    this.age = 0;
+  }
+  
+  tick(world) {
+    this.age = this.age + 1;
+    this.energy = this.energy - this.cost();
+    if (this.energy < 10) this.eat(world);
+  }
+  
+  cost() { return 1; }
+  
+  eat(world) {
+    this.energy = this.energy + world.take(5);
+  }
+  
+  alive() { return this.energy > 0; }
+}
+
+class Herbivore < Animal {
+  init(name, energy) {
+    super.init(name, energy);
+  }
+  
+  cost() { return 2; }
+}
+
+class Grazer < Herbivore {
+  init(name, energy) {
+    super.init(name, energy);
+  }
+  
+  eat(world) {
+    super.eat(world);
+    this.energy = this.energy + world.take(2);
+  }
+}
+
+class Carnivore < Animal {
+  init(name, energy) {
+    super.init(name, energy);
+  }
+  
+  cost() { return 3; }
+  
+  eat(world) {
+    this.energy = this.energy + world.hunt(8);
+  }
+}
+
+class World {
+  init() {
+    this.food = 100000;
+    this.prey = 0;
+  }
+  
+  take(amount) {
+    if (this.food < amount) amount = this.food;
+    this.food = this.food - amount;
+    this.prey = this.prey + 1;
+    return amount;
+  }
+  
+  hunt(amount) {
+    if (this.prey < 1) return 0;
+    this.prey = this.prey - 1;
+    return amount;
+  }
+  
+  grow() {
+    this.food = this.food + 40;
+  }
+}
+
+var world = World();
+var animals = List();
+for (var i = 0; i < 60; i = i + 1) {
+  animals.add(Herbivore("herbivore", 20));
+  animals.add(Grazer("grazer", 20));
+  if (i < 20) animals.add(Carnivore("carnivore", 30));
+}
+
+var steps = 0;
+for (var step = 0; step < 300; step = step + 1) {
+  for (var i = 0; i < animals.size(); i = i + 1) {
+    var animal = animals.get(i);
+    if (animal.alive()) {
+      animal.tick(world);
+      steps = steps + 1;
+    }
+  }
+  world.grow();
+}
+
+var living = 0;
+for (var i = 0; i < animals.size(); i = i + 1) {
+  if (animals.get(i).alive()) living = living + 1;
+}
+print steps;
+print living;
+print world.food;
@@ -0,0 +1,64 @@
+// list indexing heavy: count pancake flips over every permutation
+// based on the benchmarks game fannkuch-redux program
+
+fn fannkuch(n) {
+  var perm = List();
+  var perm1 = List();
+  var count = List();
+  for (var i = 0; i < n; i = i + 1) {
+    perm.add(0);
+    perm1.add(i);
+    count.add(0);
+  }
+  
+  var maxFlips = 0;
+  var checksum = 0;
+  var even = true;
+  var r = n;
+  
+  while (true) {
+    while (r != 1) {
+      count.set(r - 1, r);
+      r = r - 1;
+    }
+    
+    for (var i = 0; i < n; i = i + 1) perm.set(i, perm1.get(i));
+    var flips = 0;
+    var k = perm.get(0);
+    while (k != 0) {
+      var lo = 0;
+      var hi = k;
+      while (lo < hi) {
+        var t = perm.get(lo);
+        perm.set(lo, perm.get(hi));
+        perm.set(hi, t);
+        lo = lo + 1;
+        hi = hi - 1;
+      }
+      flips = flips + 1;
+      k = perm.get(0);
+    }
+    
+    if (flips > maxFlips) maxFlips = flips;
+    if (even) checksum = checksum + flips;
+    else checksum = checksum - flips;
+    even = !even;
+    
+    // next permutation
+    var done = true;
+    while (r != n and done) {
+      var first = perm1.get(0);
+      for (var i = 0; i < r; i = i + 1) perm1.set(i, perm1.get(i + 1));
+      perm1.set(r, first);
+      count.set(r, count.get(r) - 1);
+      if (count.get(r) > 0) done = false;
+      else r = r + 1;
+    }
+    if (done) {
+      print checksum;
+      return maxFlips;
+    }
+  }
+}
+
+print fannkuch(8);
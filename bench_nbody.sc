@@ -0,0 +1,105 @@
+// floating point heavy: simulate the orbits of the outer planets
+// based on the benchmarks game n-body program
+
+var pi = 3.141592653589793;
+var solarMass = 4 * pi * pi;
+var daysPerYear = 365.24;
+
+fn sqrt(x) {
+  var guess = x;
+  if (guess < 1) guess = 1;
+  for (var i = 0; i < 20; i = i + 1) guess = (guess + x / guess) / 2;
+  return guess;
+}
+
+class Body {
+  init(x, y, z, vx, vy, vz, mass) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.vx = vx * daysPerYear;
+    this.vy = vy * daysPerYear;
+    this.vz = vz * daysPerYear;
+    this.mass = mass * solarMass;
+  }
+}
+
+var bodies = List(
+  Body(0, 0, 0, 0, 0, 0, 1),
+  Body(4.84143144246472090, -1.16032004402742839, -0.103622044471123109,
+       0.00166007664274403694, 0.00769901118419740425, -0.0000690460016972063023,
+       0.000954791938424326609),
+  Body(8.34336671824457987, 4.12479856412430479, -0.403523417114321381,
+       -0.00276742510726862411, 0.00499852801234917238, 0.0000230417297573763929,
+       0.000285885980666130812),
+  Body(12.8943695621391310, -15.1111514016986312, -0.223307578892655734,
+       0.00296460137564761618, 0.00237847173959480950, -0.0000296589568540237556,
+       0.0000436624404335156298),
+  Body(15.3796971148509165, -25.9193146099879641, 0.179258772950371181,
+       0.00268067772490389322, 0.00162824170038242295, -0.0000951592254519715870,
+       0.0000515138902046611451));
+
+fn offsetMomentum() {
+  var px = 0;
+  var py = 0;
+  var pz = 0;
+  for (var i = 0; i < bodies.size(); i = i + 1) {
+    var body = bodies.get(i);
+    px = px + body.vx * body.mass;
+    py = py + body.vy * body.mass;
+    pz = pz + body.vz * body.mass;
+  }
+  var sun = bodies.get(0);
+  sun.vx = -px / solarMass;
+  sun.vy = -py / solarMass;
+  sun.vz = -pz / solarMass;
+}
+
+fn advance(dt) {
+  var count = bodies.size();
+  for (var i = 0; i < count; i = i + 1) {
+    var a = bodies.get(i);
+    for (var j = i + 1; j < count; j = j + 1) {
+      var b = bodies.get(j);
+      var dx = a.x - b.x;
+      var dy = a.y - b.y;
+      var dz = a.z - b.z;
+      var squared = dx * dx + dy * dy + dz * dz;
+      var magnitude = dt / (squared * sqrt(squared));
+      a.vx = a.vx - dx * b.mass * magnitude;
+      a.vy = a.vy - dy * b.mass * magnitude;
+      a.vz = a.vz - dz * b.mass * magnitude;
+      b.vx = b.vx + dx * a.mass * magnitude;
+      b.vy = b.vy + dy * a.mass * magnitude;
+      b.vz = b.vz + dz * a.mass * magnitude;
+    }
+  }
+  for (var i = 0; i < count; i = i + 1) {
+    var body = bodies.get(i);
+    body.x = body.x + dt * body.vx;
+    body.y = body.y + dt * body.vy;
+    body.z = body.z + dt * body.vz;
+  }
+}
+
+fn energy() {
+  var e = 0;
+  var count = bodies.size();
+  for (var i = 0; i < count; i = i + 1) {
+    var a = bodies.get(i);
+    e = e + 0.5 * a.mass * (a.vx * a.vx + a.vy * a.vy + a.vz * a.vz);
+    for (var j = i + 1; j < count; j = j + 1) {
+      var b = bodies.get(j);
+      var dx = a.x - b.x;
+      var dy = a.y - b.y;
+      var dz = a.z - b.z;
+      e = e - a.mass * b.mass / sqrt(dx * dx + dy * dy + dz * dz);
+    }
+  }
+  return e;
+}
+
+offsetMomentum();
+print energy();
+for (var step = 0; step < 2000; step = step + 1) advance(0.01);
+print energy();
@@ -0,0 +1,41 @@
+// speedup of parallelMap over a sequential loop for a pure function
+// run with: java -cp build/classes sparklecode.SparkleCode bench_parallel.sc
+// and compare with -Djava.util.concurrent.ForkJoinPool.common.parallelism=1
+
+var size = 2000;
+
+fn work(n) {
+  var sum = 0;
+  for (var i = 0; i < 2000; i = i + 1) sum = sum + (n * i) / (i + 1);
+  return sum;
+}
+
+fn add(a, b) {
+  return a + b;
+}
+
+var items = List();
+for (var i = 0; i < size; i = i + 1) items.add(i);
+
+// warm up
+parallelMap(items, work);
+
+var start = clock();
+var results = List();
+for (var i = 0; i < size; i = i + 1) results.add(work(items.get(i)));
+var sequential = clock() - start;
+print "sequential seconds: ";
+print sequential;
+
+start = clock();
+results = parallelMap(items, work);
+var parallel = clock() - start;
+print "parallelMap seconds: ";
+print parallel;
+print "speedup: ";
+print sequential / parallel;
+
+start = clock();
+print parallelReduce(results, add, 0);
+print "parallelReduce seconds: ";
+print clock() - start;
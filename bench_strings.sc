@@ -0,0 +1,55 @@
+// string heavy: build strings piece by piece and compare them
+
+class Builder {
+  init() {
+    this.parts = List();
+  }
+  
+  append(text) {
+    this.parts.add(text);
+    return this;
+  }
+  
+  // join pairs of parts until one is left, so each character is copied
+  // a logarithmic number of times instead of once per append
+  build() {
+    var parts = this.parts;
+    if (parts.size() == 0) return "";
+    while (parts.size() > 1) {
+      var joined = List();
+      for (var i = 0; i < parts.size(); i = i + 2) {
+        if (i + 1 < parts.size()) joined.add(parts.get(i) + parts.get(i + 1));
+        else joined.add(parts.get(i));
+      }
+      parts = joined;
+    }
+    return parts.get(0);
+  }
+}
+
+var digits = List("0", "1", "2", "3", "4", "5", "6", "7");
+digits.add("8");
+digits.add("9");
+
+fn digitString(n) {
+  if (n < 10) return digits.get(n);
+  var tens = 0;
+  while (tens * 10 + 10 <= n) tens = tens + 1;
+  return digitString(tens) + digits.get(n - tens * 10);
+}
+
+var matches = 0;
+for (var round = 0; round < 20; round = round + 1) {
+  var builder = Builder();
+  var naive = "";
+  for (var i = 0; i < 300; i = i + 1) {
+    var piece = "item" + digitString(i) + ",";
+    builder.append(piece);
+    naive = naive + piece;
+  }
+  var built = builder.build();
+  if (built == naive) matches = matches + 1;
+}
+
+print matches;
+print digitString(1234);
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the objects scripts make, by the function and line that made
+ * them, so garbage collector pressure can be traced back to the script
+ * instead of to Double, HashMap and Environment in a Java heap profile.
+ * Each allocation is also sent to Java Flight Recorder as a
+ * sparkle.Allocation event when a recording has it enabled.
+ * 
+ * Tracking is switched on by the sparkle.allocations system property, read
+ * once into a constant so normal runs leave the tracking code out. The
+ * command line sets it with the -allocations option.
+ * 
+ * Sizes are estimates for a 64 bit JVM with compressed references, and
+ * leave out objects the JIT may avoid making, so they are best used to
+ * compare sites rather than as exact totals.
+ * @author Will
+ */
+class AllocationTracker {
+  /**
+   * are allocations being tracked
+   */
+  static final boolean ENABLED = Boolean.getBoolean("sparkle.allocations");
+  
+  static final String INSTANCE = "instance";
+  static final String CLOSURE = "closure";
+  static final String BOUND_METHOD = "bound method";
+  static final String ENVIRONMENT = "environment";
+  static final String NUMBER = "number";
+  
+  /**
+   * estimated bytes of an instance, its field map and the map's first table
+   */
+  static final long INSTANCE_BYTES = 24 + 48 + 80;
+  
+  /**
+   * estimated bytes of a function object
+   */
+  static final long CLOSURE_BYTES = 32;
+  
+  /**
+   * estimated bytes of an environment with room for four variables
+   */
+  static final long ENVIRONMENT_BYTES = 40 + 32 + 32;
+  
+  /**
+   * estimated bytes of a bound method, a function and an environment
+   * holding this
+   */
+  static final long BOUND_METHOD_BYTES = CLOSURE_BYTES + ENVIRONMENT_BYTES;
+  
+  /**
+   * estimated bytes of a boxed number
+   */
+  static final long NUMBER_BYTES = 16;
+  
+  /**
+   * one kind of object made at one place, compared by value so finding
+   * the site of an allocation does not build a string
+   */
+  private static final class Key {
+    final String kind;
+    final String function;
+    final int line;
+    
+    Key(String kind, String function, int line) {
+      this.kind = kind;
+      this.function = function;
+      this.line = line;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) return false;
+      Key key = (Key)other;
+      return line == key.line && kind.equals(key.kind) 
+              && function.equals(key.function);
+    }
+    
+    @Override
+    public int hashCode() {
+      return (kind.hashCode() * 31 + function.hashCode()) * 31 + line;
+    }
+    
+    /**
+     * @return function:line, or the function if the line is not known
+     */
+    String where() {
+      return line > 0 ? function + ":" + line : function;
+    }
+  }
+  
+  /**
+   * allocations of one kind at one place
+   */
+  private static class Site {
+    final Key key;
+    final LongAdder count = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+
+    Site(Key key) {
+      this.key = key;
+    }
+  }
+  
+  private static final Map<Key, Site> SITES = new ConcurrentHashMap<>();
+  
+  /**
+   * stack of the interpreter that last called a function on each thread,
+   * for objects made where the interpreter is not at hand
+   */
+  private static final ThreadLocal<CallStack> STACKS = new ThreadLocal<>();
+  
+  private AllocationTracker() {
+  }
+  
+  /**
+   * note the stack of the interpreter running on this thread, called
+   * by the stack each time a frame is pushed
+   * @param stack stack of the interpreter
+   */
+  static void running(CallStack stack) {
+    STACKS.set(stack);
+  }
+  
+  /**
+   * count an allocation made by the interpreter running on this thread
+   * @param kind what was made
+   * @param bytes estimated size
+   * @param line line that made it, 0 for the line the top function is at
+   */
+  static void record(String kind, long bytes, int line) {
+    CallStack stack = STACKS.get();
+    if (stack == null) return;
+    record(stack, kind, bytes, line > 0 ? line : stack.currentLine());
+  }
+  
+  /**
+   * count an allocation
+   * @param stack stack of the interpreter making it, whose top function
+   * is held responsible
+   * @param kind what was made
+   * @param bytes estimated size
+   * @param line line that made it, 0 if not known
+   */
+  static void record(CallStack stack, String kind, long bytes, int line) {
+    String function = stack.function();
+    Site site = SITES.computeIfAbsent(new Key(kind, function, line), Site::new);
+    site.count.increment();
+    site.bytes.add(bytes);
+    
+    if (FlightEvents.recording) {
+      AllocationEvent event = new AllocationEvent();
+      if (event.shouldCommit()) {
+        event.kind = kind;
+        event.function = function;
+        event.line = line;
+        event.bytes = bytes;
+        event.commit();
+      }
+    }
+  }
+  
+  /**
+   * write totals for each kind, then every site with the most bytes first
+   * @param out where to write
+   */
+  static void writeReport(PrintStream out) {
+    List<Site> sites = new ArrayList<>(SITES.values());
+    sites.sort((a, b) -> Long.compare(b.bytes.sum(), a.bytes.sum()));
+    
+    Map<String, long[]> kinds = new TreeMap<>();
+    for (Site site : sites) {
+      long[] total = kinds.computeIfAbsent(site.key.kind, (key) -> new long[2]);
+      total[0] += site.count.sum();
+      total[1] += site.bytes.sum();
+    }
+    
+    out.println(String.format("%12s %14s  %s", "count", "est. bytes", "kind"));
+    kinds.forEach((kind, total) -> out.println(String.format("%12d %14d  %s", 
+            total[0], total[1], kind)));
+    out.println();
+    out.println(String.format("%12s %14s  %-22s %s", "count", "est. bytes", 
+            "kind", "function:line"));
+    for (Site site : sites) {
+      out.println(String.format("%12d %14d  %-22s %s", site.count.sum(), 
+              site.bytes.sum(), site.key.kind, site.key.where()));
+    }
+  }
+}
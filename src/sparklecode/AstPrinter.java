@@ -161,6 +161,11 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize(expr.operator.lexeme, expr.right);
   }
 
+  @Override
+  public String visitAwaitExpr(Expr.Await expr) {
+    return parenthesize("await", expr.value);
+  }
+
   /**
    * expression statement to string
    * @param stmt expression statement
@@ -296,6 +301,11 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize("return", stmt.value);
   }
 
+  @Override
+  public String visitYieldStmt(Stmt.Yield stmt) {
+    return parenthesize("yield", stmt.value);
+  }
+
   @Override
   public String visitClassStmt(Stmt.Class stmt) {
     StringBuilder builder = new StringBuilder();
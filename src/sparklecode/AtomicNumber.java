@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number that tasks can change safely at the same time, made by the
+ * AtomicNumber native. Every change is a single compare and set of the
+ * number's bits, so it is lock free but retries when many tasks change it
+ * at once; Counter is faster for numbers that are only added to.
+ * @author Will
+ */
+class AtomicNumber implements SparkleObject {
+  /**
+   * bits of the double value
+   */
+  private final AtomicLong bits = new AtomicLong();
+  
+  private final SparkleCallable get = new NativeFunction("get", 0, 
+          (interp, arguments) -> get());
+  
+  private final SparkleCallable set = new NativeFunction("set", 1, 
+          (interp, arguments) -> {
+    bits.set(Double.doubleToRawLongBits(number(arguments.get(0))));
+    return null;
+  });
+  
+  private final SparkleCallable add = new NativeFunction("add", 1, 
+          (interp, arguments) -> add(number(arguments.get(0))));
+  
+  private final SparkleCallable compareAndSet = new NativeFunction(
+          "compareAndSet", 2, (interp, arguments) -> bits.compareAndSet(
+                  Double.doubleToRawLongBits(number(arguments.get(0))), 
+                  Double.doubleToRawLongBits(number(arguments.get(1)))));
+  
+  /**
+   * create number
+   * @param value starting value
+   */
+  AtomicNumber(double value) {
+    bits.set(Double.doubleToRawLongBits(value));
+  }
+  
+  /**
+   * current value
+   * @return value
+   */
+  double get() {
+    return Double.longBitsToDouble(bits.get());
+  }
+  
+  /**
+   * add to the value
+   * @param delta amount to add
+   * @return new value
+   */
+  double add(double delta) {
+    while (true) {
+      long current = bits.get();
+      double next = Double.longBitsToDouble(current) + delta;
+      if (bits.compareAndSet(current, Double.doubleToRawLongBits(next))) {
+        return next;
+      }
+    }
+  }
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "get": return get;
+      case "set": return set;
+      case "add": return add;
+      case "compareAndSet": return compareAndSet;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  /**
+   * check an argument is a number
+   * @param value argument
+   * @return number
+   */
+  static double number(Object value) {
+    if (!(value instanceof Double)) {
+      throw new RuntimeError(null, "Argument must be a number. ");
+    }
+    return (double)value;
+  }
+  
+  @Override
+  public String toString() {
+    return "<atomic " + Interpreter.stringify(get()) + ">";
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times a function from a script for the bench native. The function is
+ * called the same number of times untimed first so the JVM compiles the
+ * interpreter paths it uses, then the timed calls are split into batches
+ * and each batch is timed with System.nanoTime. Percentiles are of the
+ * mean time per call in each batch, since a single call can be quicker
+ * than the timer can measure. allocatedBytes is also used by
+ * tool.BenchRunner.
+ * @author Will
+ */
+public class Bench {
+  /**
+   * most batches the timed calls are split into
+   */
+  private static final int BATCHES = 100;
+  
+  private static final List<Object> NO_ARGUMENTS = Collections.emptyList();
+  
+  /**
+   * counts the bytes each thread allocates, null if the JVM cannot
+   */
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+  
+  private Bench() {
+  }
+  
+  /**
+   * time a function
+   * @param interp interpreter to call the function with
+   * @param function function with no parameters
+   * @param count number of timed calls
+   * @return result with times in nanoseconds per call
+   */
+  static NativeObject run(Interpreter interp, Object function, Object count) {
+    if (!(function instanceof SparkleCallable) 
+            || ((SparkleCallable)function).arity() > 0) {
+      throw new RuntimeError(null, "bench needs a function with no parameters. ");
+    }
+    SparkleCallable callable = (SparkleCallable)function;
+    double iterations = AtomicNumber.number(count);
+    if (iterations < 1 || iterations != Math.floor(iterations) 
+            || iterations > Integer.MAX_VALUE) {
+      throw new RuntimeError(null, "Iterations must be a positive whole number. ");
+    }
+    int calls = (int)iterations;
+    
+    for (int i = 0; i < calls; i++) {
+      callable.call(interp, NO_ARGUMENTS);
+    }
+    
+    int batches = Math.min(calls, BATCHES);
+    double[] perCall = new double[batches];
+    long total = 0;
+    long allocatedBefore = allocatedBytes();
+    for (int batch = 0; batch < batches; batch++) {
+      // spread the remainder over the first batches
+      int size = calls / batches + (batch < calls % batches ? 1 : 0);
+      long start = System.nanoTime();
+      for (int i = 0; i < size; i++) {
+        callable.call(interp, NO_ARGUMENTS);
+      }
+      long elapsed = System.nanoTime() - start;
+      total += elapsed;
+      perCall[batch] = (double)elapsed / size;
+    }
+    long allocated = allocatedBytes() - allocatedBefore;
+    Arrays.sort(perCall);
+    
+    double mean = (double)total / calls;
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("iterations", (double)calls);
+    properties.put("mean", mean);
+    properties.put("min", perCall[0]);
+    properties.put("max", perCall[batches - 1]);
+    properties.put("p50", percentile(perCall, 50));
+    properties.put("p90", percentile(perCall, 90));
+    properties.put("p99", percentile(perCall, 99));
+    properties.put("opsPerSec", total == 0 ? 0.0 : calls * 1e9 / total);
+    properties.put("allocatedBytes", allocated < 0 ? 0.0 : (double)allocated / calls);
+    return new NativeObject("<bench " + Interpreter.stringify(mean) 
+            + " ns/call>", properties);
+  }
+  
+  /**
+   * nearest rank percentile
+   * @param sorted values in ascending order
+   * @param percent percentile wanted
+   * @return value
+   */
+  private static double percentile(double[] sorted, int percent) {
+    int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+  
+  /**
+   * bytes allocated by the current thread so far, which leaves out
+   * anything allocated by tasks the function spawns
+   * @return bytes, or -1 if the JVM does not count them
+   */
+  public static long allocatedBytes() {
+    return THREADS == null ? -1 
+            : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  
+  private static com.sun.management.ThreadMXBean threads() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads instanceof com.sun.management.ThreadMXBean 
+            ? (com.sun.management.ThreadMXBean)threads : null;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Arrays;
+
+/**
+ * Shadow stack of the Sparkle functions an interpreter is running, kept
+ * so a profiler can see which script functions are hot rather than only
+ * the Java frames of the interpreter. Each frame has the function and the
+ * line it is at, which is the line of the last call it made or where the
+ * function is declared if it has not made one.
+ * 
+ * Only the interpreter's own thread changes the stack and a profiler reads
+ * it without locking, so a sample may occasionally mix frames from just
+ * before and after a call. That is fine for sampling and keeps pushing a
+ * frame down to a couple of array stores.
+ * @author Will
+ */
+class CallStack {
+  /**
+   * function of each frame, null for top level code
+   */
+  private SparkleFunction[] functions = new SparkleFunction[32];
+  
+  /**
+   * line each frame is at
+   */
+  private int[] lines = new int[32];
+  
+  /**
+   * number of frames
+   */
+  private int depth = 0;
+  
+  /**
+   * flight recorder events timing each frame, null until a recording
+   * wants function call events
+   */
+  private FunctionCallEvent[] events = null;
+  
+  /**
+   * profiler this stack is registered with, so registering only happens
+   * when profiling starts or stops
+   */
+  private Profiler profiler = null;
+  
+  /**
+   * thread that last pushed a frame while profiling
+   */
+  private Thread thread = null;
+  
+  /**
+   * add a frame
+   * @param function function being run, null for top level code
+   * @param line line it starts at
+   */
+  void push(SparkleFunction function, int line) {
+    Profiler active = Profiler.active;
+    if (active != profiler) {
+      profiler = active;
+      if (active != null) active.register(this);
+    }
+    if (active != null) thread = Thread.currentThread();
+    if (AllocationTracker.ENABLED) AllocationTracker.running(this);
+    
+    if (depth == functions.length) {
+      functions = Arrays.copyOf(functions, depth * 2);
+      lines = Arrays.copyOf(lines, depth * 2);
+    }
+    functions[depth] = function;
+    lines[depth] = line;
+    depth++;
+    if (FlightEvents.calls && function != null) startEvent();
+  }
+  
+  /**
+   * remove the top frame
+   */
+  void pop() {
+    depth--;
+    if (events != null) finishEvent();
+    functions[depth] = null;
+  }
+  
+  /**
+   * start timing the top frame for flight recorder, kept out of push so
+   * pushing stays small enough to inline
+   */
+  private void startEvent() {
+    if (events == null || events.length < functions.length) {
+      events = events == null ? new FunctionCallEvent[functions.length] 
+              : Arrays.copyOf(events, functions.length);
+    }
+    events[depth - 1] = FunctionCallEvent.start();
+  }
+  
+  /**
+   * record the frame being removed if it took long enough
+   */
+  private void finishEvent() {
+    if (depth >= events.length) return;
+    FunctionCallEvent event = events[depth];
+    if (event != null) {
+      events[depth] = null;
+      SparkleFunction function = functions[depth];
+      event.finish(function.name(), function.line(), depth);
+    }
+  }
+  
+  /**
+   * move the top frame to a line
+   * @param line line number
+   */
+  void line(int line) {
+    if (depth > 0) lines[depth - 1] = line;
+  }
+  
+  /**
+   * @return name of the function on top of the stack, "&lt;script&gt;" for
+   * top level code
+   */
+  String function() {
+    if (depth == 0 || functions[depth - 1] == null) return "<script>";
+    return functions[depth - 1].name();
+  }
+  
+  /**
+   * @return number of frames
+   */
+  int depth() {
+    return depth;
+  }
+  
+  /**
+   * @return line the top frame is at, 0 if the stack is empty
+   */
+  int currentLine() {
+    return depth == 0 ? 0 : lines[depth - 1];
+  }
+  
+  /**
+   * frames in collapsed stack format, outermost first and separated by
+   * semicolons, for example "&lt;script&gt;:12;fib:3"
+   * @return frames, or null if the stack is empty or its thread is not
+   * running
+   */
+  String sample() {
+    Thread owner = thread;
+    if (owner == null || owner.getState() != Thread.State.RUNNABLE) return null;
+    // read the arrays before the depth, they are only ever replaced by
+    // larger copies
+    SparkleFunction[] frames = functions;
+    int[] at = lines;
+    int size = Math.min(depth, Math.min(frames.length, at.length));
+    if (size <= 0) return null;
+    
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(';');
+      SparkleFunction function = frames[i];
+      builder.append(function == null ? "<script>" : function.name())
+              .append(':').append(at[i]);
+    }
+    return builder.toString();
+  }
+}
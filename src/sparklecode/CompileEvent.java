@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one phase of compiling a script: scanning
+ * source into tokens, parsing tokens into statements or resolving the
+ * statements. Sources split up by ParallelParser have an event for each
+ * piece.
+ * @author Will
+ */
+@Name("sparkle.Compile")
+@Label("Sparkle Compile")
+@Category("Sparkle")
+@Description("Scan, parse or resolve phase of compiling a script")
+@StackTrace(false)
+class CompileEvent extends jdk.jfr.Event {
+  @Label("Phase")
+  String phase;
+  
+  @Label("First Line")
+  int line;
+  
+  @Label("Source Length")
+  @Description("Characters scanned")
+  int sourceLength;
+  
+  @Label("Tokens")
+  @Description("Tokens scanned or parsed")
+  int tokens;
+  
+  @Label("Statements")
+  @Description("Top level statements parsed or resolved")
+  int statements;
+  
+  /**
+   * start timing a phase
+   * @return event
+   */
+  static CompileEvent start() {
+    CompileEvent event = new CompileEvent();
+    event.begin();
+    return event;
+  }
+  
+  /**
+   * record the phase, sizes that do not apply to it are 0
+   * @param phase scan, parse or resolve
+   * @param line first line of the source
+   * @param sourceLength characters scanned
+   * @param tokens tokens scanned or parsed
+   * @param statements statements parsed or resolved
+   */
+  void finish(String phase, int line, int sourceLength, int tokens, int statements) {
+    end();
+    if (shouldCommit()) {
+      this.phase = phase;
+      this.line = line;
+      this.sourceLength = sourceLength;
+      this.tokens = tokens;
+      this.statements = statements;
+      commit();
+    }
+  }
+}
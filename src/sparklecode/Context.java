@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * Runs programs with its own globals, output and error stream.
+ * A context is cheap to create and must only be used by one thread at a
+ * time, globals defined by one program are seen by the next program it runs.
+ * @author Will
+ */
+public class Context {
+  /**
+   * interpreter holding this context's globals
+   */
+  private final Interpreter interpreter;
+  
+  /**
+   * where runtime errors are written to
+   */
+  private PrintStream err;
+  
+  /**
+   * did the last program run error
+   */
+  private boolean hadRuntimeError = false;
+  
+  /**
+   * create context with fresh globals
+   * @param out where print statements write to
+   * @param err where runtime errors are written to
+   */
+  public Context(PrintStream out, PrintStream err) {
+    this.err = err;
+    this.interpreter = new Interpreter(out, this::runtimeError);
+    interpreter.setErrorOutput(err);
+  }
+  
+  /**
+   * create context with globals layered over a shared snapshot
+   * @param out where print statements write to
+   * @param err where runtime errors are written to
+   * @param globals snapshot of globals holding the native functions
+   */
+  Context(PrintStream out, PrintStream err, Map<String, Object> globals) {
+    this.err = err;
+    this.interpreter = new Interpreter(out, this::runtimeError, 
+            new Environment(globals));
+    interpreter.setErrorOutput(err);
+  }
+  
+  /**
+   * change where output and errors are written to
+   * @param out where print statements write to
+   * @param err where runtime errors are written to
+   */
+  void redirect(PrintStream out, PrintStream err) {
+    this.err = err;
+    interpreter.setOutput(out);
+    interpreter.setErrorOutput(err);
+  }
+  
+  /**
+   * throw away everything programs have defined, going back to the
+   * snapshot of globals the context was created with
+   */
+  void reset() {
+    interpreter.reset();
+    hadRuntimeError = false;
+  }
+  
+  /**
+   * run a compiled program, then any timers and async work it started
+   * @param program program without compile errors
+   * @return false if the program stopped with a runtime error
+   */
+  public boolean run(Program program) {
+    if(program.hasErrors()) {
+      throw new IllegalArgumentException("Cannot run a program with compile errors. ");
+    }
+    
+    hadRuntimeError = false;
+    interpreter.interpret(program.statements());
+    if (!hadRuntimeError) interpreter.runEventLoop();
+    return !hadRuntimeError;
+  }
+  
+  /**
+   * report runtime error
+   * @param error error thrown
+   */
+  private void runtimeError(RuntimeError error) {
+    err.println(error.getMessage() 
+            + (error.token == null ? "" : "[line " + error.token.line + "]"));
+    if (error.trace != null) Tracer.dump(err, error.trace, error.traced);
+    hadRuntimeError = true;
+  }
+}
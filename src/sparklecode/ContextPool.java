@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of ready to use contexts, for running many short programs.
+ * Every context's globals are layered over one shared snapshot holding the
+ * native functions, so a context is reset by dropping what the last program
+ * defined rather than building new globals. Contexts are made up front, and
+ * more are made when the pool is empty.
+ * @author Will
+ */
+public class ContextPool {
+  /**
+   * idle contexts
+   */
+  private final BlockingQueue<Context> idle;
+  
+  /**
+   * globals every context starts with
+   */
+  private final Map<String, Object> globals;
+  
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder resets = new LongAdder();
+  private final LongAdder resetNanos = new LongAdder();
+  
+  /**
+   * create pool and fill it with contexts
+   * @param size most idle contexts kept
+   */
+  public ContextPool(int size) {
+    Environment natives = new Environment();
+    Interpreter.defineNatives(natives);
+    this.globals = natives.snapshot();
+    this.idle = new ArrayBlockingQueue<>(size);
+    
+    for(int i = 0; i < size; i++) {
+      idle.offer(newContext(System.out, System.err));
+    }
+  }
+  
+  /**
+   * take a context from the pool, or make one if the pool is empty
+   * @param out where print statements write to
+   * @param err where runtime errors are written to
+   * @return context with clean globals
+   */
+  public Context acquire(PrintStream out, PrintStream err) {
+    Context context = idle.poll();
+    if(context == null) {
+      misses.increment();
+      return newContext(out, err);
+    }
+    
+    hits.increment();
+    context.redirect(out, err);
+    return context;
+  }
+  
+  /**
+   * reset a context and give it back to the pool. it is dropped if the
+   * pool is already full
+   * @param context context from acquire, not used again by the caller
+   */
+  public void release(Context context) {
+    long start = System.nanoTime();
+    context.reset();
+    context.redirect(System.out, System.err);
+    resetNanos.add(System.nanoTime() - start);
+    resets.increment();
+    
+    idle.offer(context);
+  }
+  
+  private Context newContext(PrintStream out, PrintStream err) {
+    return new Context(out, err, globals);
+  }
+  
+  /**
+   * number of acquires served by an idle context
+   * @return count
+   */
+  public long hits() {
+    return hits.sum();
+  }
+  
+  /**
+   * number of acquires that had to make a new context
+   * @return count
+   */
+  public long misses() {
+    return misses.sum();
+  }
+  
+  /**
+   * number of contexts reset by release
+   * @return count
+   */
+  public long resets() {
+    return resets.sum();
+  }
+  
+  /**
+   * total time spent resetting contexts
+   * @return nanoseconds
+   */
+  public long resetNanos() {
+    return resetNanos.sum();
+  }
+  
+  /**
+   * mean time spent resetting a context
+   * @return nanoseconds, 0 if no context has been reset
+   */
+  public double meanResetNanos() {
+    long count = resets.sum();
+    return count == 0 ? 0 : (double)resetNanos.sum() / count;
+  }
+  
+  /**
+   * number of contexts waiting to be used
+   * @return count
+   */
+  public int idle() {
+    return idle.size();
+  }
+}
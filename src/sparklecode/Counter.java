@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Sum that many tasks can add to at once, made by the Counter native.
+ * Adds from different threads go to different cells that are only summed
+ * when the counter is read, so adding does not slow down as more tasks
+ * share the counter. Use AtomicNumber when the value needs compare and set.
+ * @author Will
+ */
+class Counter implements SparkleObject {
+  private final DoubleAdder sum = new DoubleAdder();
+  
+  private final SparkleCallable add = new NativeFunction("add", 1, 
+          (interp, arguments) -> {
+    sum.add(AtomicNumber.number(arguments.get(0)));
+    return null;
+  });
+  
+  private final SparkleCallable get = new NativeFunction("get", 0, 
+          (interp, arguments) -> sum.sum());
+  
+  private final SparkleCallable reset = new NativeFunction("reset", 0, 
+          (interp, arguments) -> sum.sumThenReset());
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "add": return add;
+      case "get": return get;
+      case "reset": return reset;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  @Override
+  public String toString() {
+    return "<counter " + Interpreter.stringify(sum.sum()) + ">";
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+/**
+ * Error found before code is run, kept instead of printed
+ * @author Will
+ */
+public class Diagnostic {
+  /**
+   * which line was the error on
+   */
+  public final int line;
+  
+  /**
+   * string representing code location
+   */
+  public final String where;
+  
+  /**
+   * error message
+   */
+  public final String message;
+  
+  /**
+   * create new diagnostic
+   * @param line which line was the error on
+   * @param where string representing code location
+   * @param message error message
+   */
+  public Diagnostic(int line, String where, String message) {
+    this.line = line;
+    this.where = where;
+    this.message = message;
+  }
+  
+  /**
+   * diagnostic in the same format errors are printed in
+   * @return string
+   */
+  @Override
+  public String toString() {
+    return "[line " + line + "] Error" + where + ": " + message;
+  }
+}
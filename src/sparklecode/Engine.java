@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point for embedding the interpreter.
+ * An engine compiles source into programs, which can be shared between
+ * threads, and creates contexts, which run programs with their own globals
+ * and output. Nothing here touches the static state in SparkleCode.
+ * @author Will
+ */
+public class Engine {
+  /**
+   * should large sources be parsed on the fork-join pool
+   */
+  private final boolean parallelParse;
+  
+  /**
+   * create engine that parses large sources in parallel
+   */
+  public Engine() {
+    this(true);
+  }
+  
+  /**
+   * create engine
+   * @param parallelParse should large sources be parsed on the fork-join pool
+   */
+  public Engine(boolean parallelParse) {
+    this.parallelParse = parallelParse;
+  }
+  
+  /**
+   * scan, parse and resolve source code. this is safe to call from
+   * several threads at once
+   * @param source source code
+   * @return program, check hasErrors before running it
+   */
+  public Program compile(String source) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    ErrorReporter reporter = (line, where, message) -> {
+      diagnostics.add(new Diagnostic(line, where, message));
+    };
+    
+    long start = System.nanoTime();
+    List<Stmt> statements;
+    if(parallelParse && ParallelParser.worthwhile(source)) {
+      statements = new ParallelParser(source, reporter).parse();
+    } else {
+      Scanner scanner = new Scanner(source, 1, reporter);
+      statements = new Parser(scanner.scanTokens(), reporter).parse();
+    }
+    
+    if(diagnostics.isEmpty()) {
+      new Resolver(reporter).resolve(statements);
+    }
+    SparkleMetrics.compiled(System.nanoTime() - start);
+    
+    return new Program(statements, diagnostics);
+  }
+  
+  /**
+   * compile the current text of a source being edited, from the
+   * statements it already has parsed rather than parsing it again. The
+   * program keeps its own copy, so later edits do not change it
+   * @param source source being edited
+   * @return program, check hasErrors before running it
+   */
+  public Program compile(IncrementalParser source) {
+    long start = System.nanoTime();
+    List<Diagnostic> diagnostics = source.diagnostics();
+    FlatAst code = diagnostics.isEmpty() ? source.encode() : null;
+    SparkleMetrics.compiled(System.nanoTime() - start);
+    
+    return new Program(code, diagnostics);
+  }
+  
+  /**
+   * create context with fresh globals
+   * @param out where print statements write to
+   * @param err where runtime errors are written to
+   * @return context
+   */
+  public Context createContext(PrintStream out, PrintStream err) {
+    return new Context(out, err);
+  }
+}
@@ -24,30 +24,137 @@
 
 package sparklecode;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Where all values and their names are stored.
  * Contains wrapper methods around get, define and assign to check for errors.
+ * The global environment keeps each value in a cell, held in a map by name,
+ * local environments keep them in an array indexed by the slot the
+ * resolver gave each variable, in the order they are defined.
+ * Spawned tasks share the global environment. The map is concurrent, so
+ * reads take no locks, and a cell is never replaced once made, so the
+ * cell an expression found can be kept and read directly next time. The
+ * global environment keeps these in an array indexed by the number the
+ * resolver gave the expression, rather than on the expression, so a
+ * program run by many contexts does not hold on to any of their globals.
  * @author Will
  */
 public class Environment {  
+  /**
+   * value of one global variable. defining or assigning the variable
+   * again changes the value of the same cell, so cells held by
+   * expressions always see the latest value
+   */
+  static final class Global {
+    /**
+     * reset count of the environment when the cell was made, a cell from
+     * before a reset is out of date
+     */
+    final int epoch;
+    
+    volatile Object value;
+
+    Global(Globals owner, Object value) {
+      this.epoch = owner.epoch;
+      this.value = value;
+    }
+  }
+  
+  /**
+   * cell found by an expression using a global variable. Programs number
+   * their expressions separately, so the name token the entry was made for
+   * is kept to tell which expression it belongs to
+   */
+  private static final class Use {
+    final Token name;
+    final Global global;
+
+    Use(Token name, Global global) {
+      this.name = name;
+      this.global = global;
+    }
+  }
+  
   /**
    * Parent environment
    */
   public final Environment enclosing;
   
   /**
-   * Map of value names and values
+   * what only the global environment has, kept in one object so local
+   * environments, made for every call and block, stay small
+   */
+  private static final class Globals {
+    /**
+     * Map of value names and cells
+     */
+    final Map<String, Global> values = new ConcurrentHashMap<>();
+    
+    /**
+     * shared read only globals that values are layered over, values holds
+     * only what has been used, defined or assigned since. null if not
+     * layered
+     */
+    final Map<String, Object> defaults;
+    
+    /**
+     * number of times the global environment has been reset
+     */
+    volatile int epoch = 0;
+    
+    /**
+     * cells found by expressions using globals, indexed by the number the
+     * resolver gave each expression. Tasks may race to fill and grow it,
+     * which only loses entries that are found again next time
+     */
+    Use[] uses = new Use[0];
+
+    Globals(Map<String, Object> defaults) {
+      this.defaults = defaults;
+    }
+  }
+  
+  /**
+   * global variables, null in local environments
    */
-  private final Map<String, Object> values = new HashMap<>();
+  private final Globals globals;
+  
+  /**
+   * names of local variables, indexed by slot
+   */
+  private String[] names;
+  
+  /**
+   * values of local variables, indexed by slot
+   */
+  private Object[] slots;
+  
+  /**
+   * number of local variables defined
+   */
+  private int count = 0;
 
   /**
    * new global environment
    */
   public Environment() {
+    this((Map<String, Object>)null);
+  }
+  
+  /**
+   * new global environment layered over a snapshot of another global
+   * environment. the snapshot is not copied or changed, so it can be shared
+   * by many environments, and reset goes back to it
+   * @param defaults snapshot made by snapshot()
+   */
+  Environment(Map<String, Object> defaults) {
     enclosing = null;
+    globals = new Globals(defaults);
   }
   
   /**
@@ -57,21 +164,145 @@ public class Environment {
    */
   public Environment(Environment e) {
     enclosing = e;
+    globals = null;
   }
   
   /**
-   * Add new value to map, assuming the value has been initialised
-   * @param name name of variable
-   * @param value value of variable
+   * read only copy of the variables of a global environment
+   * @return map of names to values
    */
+  Map<String, Object> snapshot() {
+    Map<String, Object> copy = globals.defaults == null 
+            ? new HashMap<>() : new HashMap<>(globals.defaults);
+    globals.values.forEach((name, global) -> copy.put(name, global.value));
+    return Collections.unmodifiableMap(copy);
+  }
   
   /**
-   * Add new value to map
+   * forget everything defined or assigned since this global environment
+   * was made from a snapshot. cells already handed out are left as they
+   * are, and are out of date from now on
+   */
+  void reset() {
+    globals.epoch++;
+    globals.values.clear();
+    globals.uses = new Use[0];
+  }
+  
+  /**
+   * find the cell of a global, making one for a name only found in the
+   * snapshot so that assigning it does not change the snapshot
+   * @param name variable name
+   * @return cell, or null if the name is not defined
+   */
+  private Global cell(String name) {
+    Global global = globals.values.get(name);
+    Map<String, Object> defaults = globals.defaults;
+    if (global != null || defaults == null) return global;
+    return globals.values.computeIfAbsent(name, (key) -> defaults.containsKey(key)
+            ? new Global(globals, defaults.get(key)) : null);
+  }
+  
+  /**
+   * find the cell of a global, using the one an expression found last
+   * time if it is still current
+   * @param site expression using the variable
+   * @param name variable name
+   * @return cell
+   */
+  private Global cell(Expr site, Token name) {
+    Use[] found = globals.uses;
+    int index = site.slot;
+    if (index < found.length) {
+      Use use = found[index];
+      if (use != null && use.name == name && use.global.epoch == globals.epoch) {
+        return use.global;
+      }
+    }
+    return find(site, name);
+  }
+  
+  /**
+   * find the cell of a global by name and keep it for the expression,
+   * kept out of cell so the common case stays small enough to inline
+   * @param site expression using the variable
+   * @param name variable name
+   * @return cell
+   */
+  private Global find(Expr site, Token name) {
+    if (TypeFeedback.ENABLED) TypeFeedback.lookup(site, name);
+    Global global = cell(name.lexeme);
+    if (global == null) {
+      throw new RuntimeError(name,
+          "Undefined variable '" + name.lexeme + "'. ");
+    }
+    Use[] found = globals.uses;
+    int index = site.slot;
+    if (index >= found.length) {
+      found = Arrays.copyOf(found, Math.max(index + 1, found.length * 2));
+      globals.uses = found;
+    }
+    found[index] = new Use(name, global);
+    return global;
+  }
+  
+  /**
+   * get global variable used by an expression
+   * @param site expression using the variable, numbered by the resolver
+   * @param name variable name
+   * @return value
+   */
+  Object getGlobal(Expr site, Token name) {
+    return cell(site, name).value;
+  }
+  
+  /**
+   * set global variable used by an expression
+   * @param site expression using the variable, numbered by the resolver
+   * @param name variable name
+   * @param value value to set the variable to
+   */
+  void assignGlobal(Expr site, Token name, Object value) {
+    cell(site, name).value = value;
+  }
+  
+  /**
+   * Add new value to map, or to the next slot of a local environment
    * @param name name of variable
    * @param value value of variable
    */
   public void define(String name, Object value) {
-    values.put(name, value);
+    if (globals != null) {
+      Global global = cell(name);
+      if (global == null) {
+        global = globals.values.computeIfAbsent(name, (key) -> new Global(globals, null));
+      }
+      global.value = value;
+      return;
+    }
+    
+    if (slots == null) {
+      names = new String[4];
+      slots = new Object[4];
+    } else if (count == slots.length) {
+      names = Arrays.copyOf(names, count * 2);
+      slots = Arrays.copyOf(slots, count * 2);
+    }
+    names[count] = name;
+    slots[count] = value;
+    count++;
+  }
+  
+  /**
+   * slot of a local variable in this environment
+   * @param name variable name
+   * @return slot or -1 if not defined here
+   */
+  private int indexOf(String name) {
+    for (int i = count - 1; i >= 0; i--) {
+      if (names[i].equals(name)) return i;
+    }
+    return -1;
   }
   
   /**
@@ -80,9 +311,12 @@ public class Environment {
    * @return value from map
    */
   public Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      // get value from current map
-      return values.get(name.lexeme);
+    if (globals != null) {
+      Global global = cell(name.lexeme);
+      if (global != null) return global.value;
+    } else {
+      int slot = indexOf(name.lexeme);
+      if (slot != -1) return slots[slot];
     }
     
     // get object from parent 
@@ -93,8 +327,31 @@ public class Environment {
         "Undefined variable '" + name.lexeme + "'. ");
   }
   
+  /**
+   * get variable by name from an enclosing environment
+   * @param distance number of environments out
+   * @param name variable name
+   * @return value
+   */
   public Object getAt(int distance, String name) {
-    return ancestor(distance).values.get(name);
+    Environment environment = ancestor(distance);
+    if (environment.globals != null) {
+      Global global = environment.cell(name);
+      return global == null ? null : global.value;
+    }
+    
+    int slot = environment.indexOf(name);
+    return slot == -1 ? null : environment.slots[slot];
+  }
+  
+  /**
+   * get local variable by slot from an enclosing environment
+   * @param distance number of environments out
+   * @param slot slot given by the resolver
+   * @return value
+   */
+  public Object getAt(int distance, int slot) {
+    return ancestor(distance).slots[slot];
   }
   
   public Environment ancestor(int distance) {
@@ -105,8 +362,14 @@ public class Environment {
     return environment;
   }
   
-  public void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  /**
+   * set local variable by slot in an enclosing environment
+   * @param distance number of environments out
+   * @param slot slot given by the resolver
+   * @param value value to set the variable to
+   */
+  public void assignAt(int distance, int slot, Object value) {
+    ancestor(distance).slots[slot] = value;
   }
   
   /**
@@ -117,9 +380,18 @@ public class Environment {
    */
   public void assign(Token name, Object value) {
     // value in this environment
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
+    if (globals != null) {
+      Global global = cell(name.lexeme);
+      if (global != null) {
+        global.value = value;
+        return;
+      }
+    } else {
+      int slot = indexOf(name.lexeme);
+      if (slot != -1) {
+        slots[slot] = value;
+        return;
+      }
     }
     
     // value not in this environment but might be in parent
@@ -0,0 +1,395 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs timer and future callbacks for one interpreter and the tasks
+ * forked from it.
+ * Callbacks are queued and run one at a time by the interpreter that owns
+ * the loop, on whichever thread is running it, so they never run at the
+ * same time as each other or as the main script. They run while the
+ * owner's top-level code waits in await, and after the script has
+ * finished until nothing is pending.
+ * 
+ * A function that awaits is async: calling it starts its body and returns
+ * a future of its return value. When the owner runs the body and it
+ * awaits a future that has not finished, the body stops there, with
+ * nothing left on the Java stack, and the loop carries it on once the
+ * future finishes, see start. Waiting in await on any other interpreter,
+ * such as a spawned task, blocks that thread; on a JVM with virtual
+ * threads this does not hold on to a platform thread. Futures from sleep
+ * and async finish without the loop, but ones that run a callback only
+ * finish while the owner is running the loop.
+ * @author Will
+ */
+class EventLoop {
+  /**
+   * fires every timer, then hands the callback to the owning loop
+   */
+  private static final ScheduledThreadPoolExecutor TIMERS = createTimers();
+  
+  /**
+   * interpreter callbacks are run by
+   */
+  private final Interpreter owner;
+  
+  /**
+   * callbacks waiting to run
+   */
+  private final BlockingQueue<Runnable> ready = new LinkedBlockingQueue<>();
+  
+  /**
+   * timers, tasks and callbacks that will still queue something
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+  
+  /**
+   * intervals that have not been cancelled, cancelled by reset. a reset
+   * does not need to cancel timeouts, their callbacks are ignored
+   */
+  private final Set<ScheduledFuture<?>> intervals = ConcurrentHashMap.newKeySet();
+  
+  /**
+   * number of resets, work started before a reset is ignored
+   */
+  private volatile int generation = 0;
+  
+  /**
+   * one piece of pending work, finished exactly once
+   */
+  private class Job {
+    final int started = generation;
+    final AtomicBoolean finished = new AtomicBoolean();
+
+    Job() {
+      pending.incrementAndGet();
+    }
+    
+    /**
+     * queue a callback that runs unless the loop has been reset since
+     * the job started
+     * @param callback code to run on the loop
+     */
+    void post(Runnable callback) {
+      ready.add(() -> {
+        if (started == generation) callback.run();
+      });
+    }
+    
+    /**
+     * stop counting the job as pending, only called on the loop
+     * @return false if it was already finished
+     */
+    boolean finish() {
+      if (!finished.compareAndSet(false, true)) return false;
+      pending.decrementAndGet();
+      return true;
+    }
+  }
+  
+  /**
+   * @param owner interpreter that runs callbacks
+   */
+  EventLoop(Interpreter owner) {
+    this.owner = owner;
+  }
+  
+  /**
+   * @param interp interpreter
+   * @return does the interpreter run this loop's callbacks
+   */
+  boolean isOwner(Interpreter interp) {
+    return interp == owner;
+  }
+  
+  /**
+   * start the body of an async function. It runs on the caller until it
+   * returns or stops at an await, then the loop carries it on each time
+   * the future it waits for finishes
+   * @param caller interpreter calling the function
+   * @param function async function
+   * @param env environment holding its arguments
+   * @return future of its return value, or of the error it stopped with
+   */
+  SparkleFuture start(Interpreter caller, SparkleFunction function, 
+          Environment env) {
+    SparkleFuture future = new SparkleFuture(this);
+    if (!proceed(caller, new SparkleGenerator.Frame(function, env), future)
+            && future.unobservedError() != null) {
+      // the caller has not had the future yet, report the error later if
+      // nothing waits for it
+      Job job = new Job();
+      job.post(() -> {
+        job.finish();
+        reportUnobserved(future);
+      });
+    }
+    return future;
+  }
+  
+  /**
+   * run an async body until it finishes or stops at an await
+   * @param interp interpreter to run it with
+   * @param frame state of the body
+   * @param future future of its return value
+   * @return false if the body finished
+   */
+  private boolean proceed(Interpreter interp, SparkleGenerator.Frame frame, 
+          SparkleFuture future) {
+    try {
+      if (!interp.resume(frame)) {
+        future.complete(frame.value);
+        return false;
+      }
+    } catch (RuntimeError error) {
+      future.fail(error);
+      return false;
+    }
+    Job job = new Job();
+    frame.future.whenDone((value, error) -> job.post(() -> {
+      job.finish();
+      if (!proceed(owner, frame, future)) reportUnobserved(future);
+    }));
+    return true;
+  }
+  
+  /**
+   * future finished by calling fn after a delay
+   * @param fn function with no parameters, or null to finish with nil
+   * @param millis delay in milliseconds
+   * @return future of fn's return value
+   */
+  SparkleFuture setTimeout(SparkleCallable fn, double millis) {
+    SparkleFuture future = new SparkleFuture(this);
+    Job job = new Job();
+    ScheduledFuture<?> timer = TIMERS.schedule(() -> {
+      if (fn == null) {
+        // nothing to run, so tasks waiting for a sleep do not need the loop
+        future.complete(null);
+        job.post(job::finish);
+        return;
+      }
+      job.post(() -> {
+        if (!job.finish() || future.isDone()) return;
+        try {
+          future.complete(fn.call(owner, Collections.emptyList()));
+        } catch (RuntimeError error) {
+          future.fail(error);
+          reportUnobserved(future);
+        }
+      });
+    }, micros(Math.max(millis, 0)), TimeUnit.MICROSECONDS);
+    
+    future.onCancel(() -> {
+      timer.cancel(false);
+      job.post(job::finish);
+    });
+    return future;
+  }
+  
+  /**
+   * call fn repeatedly until the returned future is cancelled. ticks that
+   * come while the last call is still queued are skipped
+   * @param fn function with no parameters
+   * @param millis time between calls in milliseconds
+   * @return future finished with nil when cancelled
+   */
+  SparkleFuture setInterval(SparkleCallable fn, double millis) {
+    if (millis < 1) {
+      throw new RuntimeError(null, "Interval must be at least 1 millisecond. ");
+    }
+    SparkleFuture future = new SparkleFuture(this);
+    Job job = new Job();
+    AtomicBoolean queued = new AtomicBoolean();
+    long period = micros(millis);
+    ScheduledFuture<?> timer = TIMERS.scheduleAtFixedRate(() -> {
+      if (!queued.compareAndSet(false, true)) return;
+      job.post(() -> {
+        queued.set(false);
+        if (future.isDone()) return;
+        try {
+          fn.call(owner, Collections.emptyList());
+        } catch (RuntimeError error) {
+          owner.reportError(error);
+        }
+      });
+    }, period, period, TimeUnit.MICROSECONDS);
+    intervals.add(timer);
+    
+    future.onCancel(() -> {
+      timer.cancel(false);
+      intervals.remove(timer);
+      job.post(job::finish);
+    });
+    return future;
+  }
+  
+  /**
+   * run fn on another thread, in parallel with the loop
+   * @param caller interpreter calling async, shares globals with fn
+   * @param fn function with no parameters
+   * @return future of fn's return value
+   */
+  SparkleFuture async(Interpreter caller, SparkleCallable fn) {
+    SparkleFuture future = new SparkleFuture(this);
+    Job job = new Job();
+    Interpreter worker = caller.fork();
+    SparkleTask.EXECUTOR.execute(() -> {
+      try {
+        future.complete(fn.call(worker, Collections.emptyList()));
+      } catch (RuntimeException error) {
+        future.fail(error);
+      }
+      job.post(() -> {
+        job.finish();
+        reportUnobserved(future);
+      });
+    });
+    return future;
+  }
+  
+  /**
+   * call fn on the loop with the value of a future once it finishes
+   * @param source future to wait for
+   * @param fn function with one parameter
+   * @return future of fn's return value, or of the error source failed with
+   */
+  SparkleFuture then(SparkleFuture source, SparkleCallable fn) {
+    SparkleFuture future = new SparkleFuture(this);
+    Job job = new Job();
+    source.whenDone((value, error) -> job.post(() -> {
+      job.finish();
+      if (error != null) {
+        future.fail(error);
+      } else {
+        try {
+          future.complete(fn.call(owner, Collections.singletonList(value)));
+        } catch (RuntimeError e) {
+          future.fail(e);
+        }
+      }
+      reportUnobserved(future);
+    }));
+    return future;
+  }
+  
+  /**
+   * wait for a future. the owner runs queued callbacks while it waits,
+   * other interpreters block.
+   * 
+   * The owner only gets here from top-level code, or with a future that
+   * has finished, as async functions stop at an await instead. Callbacks
+   * are functions, so they never await here themselves and the loop is
+   * never run inside itself.
+   * @param caller interpreter running the await
+   * @param future future to wait for
+   * @return its value
+   */
+  Object await(Interpreter caller, SparkleFuture future) {
+    if (caller != owner) return future.value();
+    
+    while (!future.isDone()) {
+      if (pending.get() == 0 && ready.isEmpty()) {
+        throw new RuntimeError(null, "Awaiting a future that can never finish. ");
+      }
+      runOne();
+    }
+    return future.value();
+  }
+  
+  /**
+   * run callbacks until nothing is pending
+   */
+  void run() {
+    while (pending.get() > 0 || !ready.isEmpty()) {
+      runOne();
+    }
+  }
+  
+  /**
+   * cancel every timer and forget all pending work
+   */
+  void reset() {
+    generation++;
+    intervals.forEach((timer) -> timer.cancel(false));
+    intervals.clear();
+    ready.clear();
+    pending.set(0);
+  }
+  
+  /**
+   * wait for a callback and run it
+   */
+  private void runOne() {
+    Runnable callback;
+    try {
+      callback = ready.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while waiting for events. ");
+    }
+    try {
+      callback.run();
+    } catch (RuntimeError error) {
+      owner.reportError(error);
+    }
+  }
+  
+  /**
+   * report the error of a failed future nothing has waited for, so it is
+   * not lost
+   * @param future finished future
+   */
+  private void reportUnobserved(SparkleFuture future) {
+    RuntimeException error = future.unobservedError();
+    if (error instanceof RuntimeError) owner.reportError((RuntimeError)error);
+    else if (error != null) throw error;
+  }
+  
+  private static long micros(double millis) {
+    return (long)Math.ceil(millis * 1000);
+  }
+  
+  private static ScheduledThreadPoolExecutor createTimers() {
+    ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, 
+            (runnable) -> {
+      Thread thread = new Thread(runnable, "sparkle-timers");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timers.setRemoveOnCancelPolicy(true);
+    return timers;
+  }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 public abstract class Expr {
   public interface Visitor<R> {
     public R visitAssignExpr(Assign expr);
+    public R visitAwaitExpr(Await expr);
     public R visitBinaryExpr(Binary expr);
     public R visitCallExpr(Call expr);
     public R visitGetExpr(Get expr);
@@ -35,6 +36,21 @@ public abstract class Expr {
     final Expr value;
   }
 
+  static public class Await extends Expr {
+    Await(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAwaitExpr(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+  }
+
   static public class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
@@ -98,8 +114,9 @@ public abstract class Expr {
   }
 
   static public class Literal extends Expr {
-    Literal(Object value) {
+    Literal(Object value, int line) {
       this.value = value;
+      this.line = line;
     }
 
     @Override
@@ -108,6 +125,7 @@ public abstract class Expr {
     }
 
     final Object value;
+    final int line;
   }
 
   static public class Logical extends Expr {
@@ -200,5 +218,11 @@ public abstract class Expr {
     final Token name;
   }
 
+  // set by the resolver: environments out to the variable, -1 if global
+  int depth = -1;
+  // set by the resolver: slot of the variable in that environment,
+  // for a global the number of this use among the program's global uses
+  int slot;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
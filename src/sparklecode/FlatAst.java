@@ -0,0 +1,632 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact array encoding of a statement list.
+ * Every node is a fixed size record of ints in one array, tokens are
+ * (type, lexeme, line) triples in a second array, child lists are stored
+ * length prefixed in a third, and all strings and literal values are kept
+ * once in a constant pool. The tree can be walked directly through the
+ * accessor methods, written to a stream and read back, or inflated into
+ * Stmt objects for the resolver and interpreter.
+ * @author Will
+ */
+public class FlatAst {
+  // expression node kinds
+  public static final int ASSIGN = 0;
+  public static final int BINARY = 1;
+  public static final int CALL = 2;
+  public static final int GET = 3;
+  public static final int GROUPING = 4;
+  public static final int LITERAL = 5;
+  public static final int LOGICAL = 6;
+  public static final int SET = 7;
+  public static final int SUPER = 8;
+  public static final int THIS = 9;
+  public static final int UNARY = 10;
+  public static final int VARIABLE = 11;
+  
+  // statement node kinds
+  public static final int BLOCK = 12;
+  public static final int CLASS = 13;
+  public static final int EXPRESSION = 14;
+  public static final int FUNCTION = 15;
+  public static final int IF = 16;
+  public static final int PRINT = 17;
+  public static final int RETURN = 18;
+  public static final int VAR = 19;
+  public static final int WHILE = 20;
+  public static final int YIELD = 21;
+  
+  // expression node kinds added later
+  public static final int AWAIT = 22;
+  
+  /**
+   * index used for a missing child, token or list
+   */
+  public static final int NONE = -1;
+  
+  /**
+   * ints per node record: kind followed by three operands
+   */
+  private static final int NODE_SIZE = 4;
+  
+  /**
+   * ints per token record: type ordinal, lexeme constant and line
+   */
+  private static final int TOKEN_SIZE = 3;
+  
+  /**
+   * header written before serialised trees, changed when the format is
+   * so older trees are refused rather than misread
+   */
+  private static final int MAGIC = 0x53504b42;
+  
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+  
+  /**
+   * node records
+   */
+  private final int[] nodes;
+  
+  /**
+   * token records
+   */
+  private final int[] tokens;
+  
+  /**
+   * length prefixed lists of node or token indexes
+   */
+  private final int[] lists;
+  
+  /**
+   * lexemes and literal values
+   */
+  private final Object[] constants;
+  
+  /**
+   * list of top level statements
+   */
+  private final int root;
+  
+  private FlatAst(int[] nodes, int[] tokens, int[] lists, Object[] constants, int root) {
+    this.nodes = nodes;
+    this.tokens = tokens;
+    this.lists = lists;
+    this.constants = constants;
+    this.root = root;
+  }
+  
+  /**
+   * encode a list of statements
+   * @param statements parsed statements
+   * @return flat tree
+   */
+  public static FlatAst encode(List<Stmt> statements) {
+    return encode(Collections.singletonList(statements), new int[] {0});
+  }
+  
+  /**
+   * encode parts of a program one after another as one list of top level
+   * statements, moving the lines of each part. used for declarations that
+   * moved up or down since they were parsed
+   * @param parts parsed statements of each part
+   * @param shifts number of lines to add to the lines of each part
+   * @return flat tree
+   */
+  public static FlatAst encode(List<List<Stmt>> parts, int[] shifts) {
+    return new Writer().write(parts, shifts);
+  }
+  
+  /**
+   * list of top level statements
+   * @return list index
+   */
+  public int root() {
+    return root;
+  }
+  
+  /**
+   * kind of a node
+   * @param node node index
+   * @return one of the node kind constants
+   */
+  public int kind(int node) {
+    return nodes[node * NODE_SIZE];
+  }
+  
+  /**
+   * child node, token, list or constant of a node, depending on its kind
+   * @param node node index
+   * @param i operand number, 0 to 2
+   * @return index or NONE
+   */
+  public int operand(int node, int i) {
+    return nodes[node * NODE_SIZE + 1 + i];
+  }
+  
+  /**
+   * number of entries in a list
+   * @param list list index
+   * @return size
+   */
+  public int listSize(int list) {
+    return lists[list];
+  }
+  
+  /**
+   * entry of a list
+   * @param list list index
+   * @param i position in list
+   * @return node or token index
+   */
+  public int listItem(int list, int i) {
+    return lists[list + 1 + i];
+  }
+  
+  /**
+   * type of a token
+   * @param token token index
+   * @return token type
+   */
+  public TokenType tokenType(int token) {
+    return TOKEN_TYPES[tokens[token * TOKEN_SIZE]];
+  }
+  
+  /**
+   * source text of a token
+   * @param token token index
+   * @return lexeme
+   */
+  public String lexeme(int token) {
+    return (String)constants[tokens[token * TOKEN_SIZE + 1]];
+  }
+  
+  /**
+   * line of a token
+   * @param token token index
+   * @return line number
+   */
+  public int line(int token) {
+    return tokens[token * TOKEN_SIZE + 2];
+  }
+  
+  /**
+   * value in the constant pool
+   * @param index constant index
+   * @return string, number, boolean or nil
+   */
+  public Object constant(int index) {
+    return constants[index];
+  }
+  
+  /**
+   * number of nodes in the tree
+   * @return count
+   */
+  public int nodeCount() {
+    return nodes.length / NODE_SIZE;
+  }
+  
+  /**
+   * rebuild statement objects, for the resolver and interpreter
+   * @return list of statements
+   */
+  public List<Stmt> decode() {
+    return new Reader().statements(root);
+  }
+  
+  /**
+   * write the tree to a stream
+   * @param out output stream
+   * @throws IOException 
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(root);
+    writeInts(out, nodes);
+    writeInts(out, tokens);
+    writeInts(out, lists);
+    
+    out.writeInt(constants.length);
+    for(Object constant : constants) {
+      if(constant == null) {
+        out.writeByte(0);
+      } else if(constant instanceof String) {
+        // not writeUTF, which cannot write strings over 64KB
+        byte[] bytes = ((String)constant).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if(constant instanceof Double) {
+        out.writeByte(2);
+        out.writeDouble((Double)constant);
+      } else {
+        out.writeByte(3);
+        out.writeBoolean((Boolean)constant);
+      }
+    }
+  }
+  
+  /**
+   * read a tree written by writeTo
+   * @param in input stream
+   * @return flat tree
+   * @throws IOException if the stream does not hold a tree
+   */
+  public static FlatAst readFrom(DataInputStream in) throws IOException {
+    if(in.readInt() != MAGIC) {
+      throw new IOException("Not a compiled SparkleCode tree. ");
+    }
+    int root = in.readInt();
+    int[] nodes = readInts(in);
+    int[] tokens = readInts(in);
+    int[] lists = readInts(in);
+    
+    Object[] constants = new Object[in.readInt()];
+    for(int i = 0; i < constants.length; i++) {
+      switch(in.readByte()) {
+        case 0: constants[i] = null; break;
+        case 1: constants[i] = readString(in); break;
+        case 2: constants[i] = in.readDouble(); break;
+        case 3: constants[i] = in.readBoolean(); break;
+        default: throw new IOException("Bad constant tag. ");
+      }
+    }
+    
+    return new FlatAst(nodes, tokens, lists, constants, root);
+  }
+  
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if(length < 0) throw new IOException("Bad string length. ");
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for(int value : values) out.writeInt(value);
+  }
+  
+  private static int[] readInts(DataInputStream in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for(int i = 0; i < values.length; i++) values[i] = in.readInt();
+    return values;
+  }
+  
+  /**
+   * growable int array
+   */
+  private static class IntBuffer {
+    int[] data = new int[64];
+    int size = 0;
+    
+    int add(int value) {
+      if(size == data.length) data = Arrays.copyOf(data, size * 2);
+      data[size] = value;
+      return size++;
+    }
+    
+    int[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+  
+  /**
+   * walks statement objects and appends them to the arrays
+   */
+  private static class Writer implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    private final IntBuffer nodes = new IntBuffer();
+    private final IntBuffer tokens = new IntBuffer();
+    private final IntBuffer lists = new IntBuffer();
+    private final List<Object> constants = new ArrayList<>();
+    
+    /**
+     * constant pool indexes of values already added, strings and numbers
+     * are shared between every node that uses them
+     */
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    
+    /**
+     * lines added to the lines of the part being written
+     */
+    private int shift;
+    
+    FlatAst write(List<List<Stmt>> parts, int[] shifts) {
+      IntBuffer items = new IntBuffer();
+      for(int i = 0; i < parts.size(); i++) {
+        shift = shifts[i];
+        for(Stmt stmt : parts.get(i)) items.add(stmt(stmt));
+      }
+      int root = list(items.toArray());
+      return new FlatAst(nodes.toArray(), tokens.toArray(), lists.toArray(),
+              constants.toArray(), root);
+    }
+    
+    private int node(int kind, int a, int b, int c) {
+      int index = nodes.size / NODE_SIZE;
+      nodes.add(kind);
+      nodes.add(a);
+      nodes.add(b);
+      nodes.add(c);
+      return index;
+    }
+    
+    private int constant(Object value) {
+      Integer index = constantIndex.get(value == null ? NONE : value);
+      if(index == null) {
+        index = constants.size();
+        constants.add(value);
+        constantIndex.put(value == null ? NONE : value, index);
+      }
+      return index;
+    }
+    
+    private int token(Token token) {
+      int index = tokens.size / TOKEN_SIZE;
+      tokens.add(token.type.ordinal());
+      tokens.add(constant(token.lexeme));
+      tokens.add(token.line + shift);
+      return index;
+    }
+    
+    private int expr(Expr expr) {
+      return expr == null ? NONE : expr.accept(this);
+    }
+    
+    private int stmt(Stmt stmt) {
+      return stmt == null ? NONE : stmt.accept(this);
+    }
+    
+    private int statementList(List<? extends Stmt> statements) {
+      int[] items = new int[statements.size()];
+      for(int i = 0; i < items.length; i++) items[i] = stmt(statements.get(i));
+      return list(items);
+    }
+    
+    private int list(int[] items) {
+      int index = lists.add(items.length);
+      for(int item : items) lists.add(item);
+      return index;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      return node(ASSIGN, token(expr.name), expr(expr.value), NONE);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return node(BINARY, expr(expr.left), token(expr.operator), expr(expr.right));
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      int[] arguments = new int[expr.arguments.size()];
+      for(int i = 0; i < arguments.length; i++) {
+        arguments[i] = expr(expr.arguments.get(i));
+      }
+      return node(CALL, expr(expr.callee), token(expr.paren), list(arguments));
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      return node(GET, expr(expr.object), token(expr.name), NONE);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return node(GROUPING, expr(expr.expression), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return node(LITERAL, constant(expr.value), expr.line + shift, NONE);
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return node(LOGICAL, expr(expr.left), token(expr.operator), expr(expr.right));
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      return node(SET, expr(expr.object), token(expr.name), expr(expr.value));
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      return node(SUPER, token(expr.keyword), token(expr.method), NONE);
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      return node(THIS, token(expr.keyword), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      return node(UNARY, token(expr.operator), expr(expr.right), NONE);
+    }
+
+    @Override
+    public Integer visitAwaitExpr(Expr.Await expr) {
+      return node(AWAIT, token(expr.keyword), expr(expr.value), NONE);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return node(VARIABLE, token(expr.name), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      return node(BLOCK, statementList(stmt.statements), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      return node(CLASS, token(stmt.name), expr(stmt.superclass),
+              statementList(stmt.methods));
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return node(EXPRESSION, expr(stmt.expression), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      int[] parameters = new int[stmt.parameters.size()];
+      for(int i = 0; i < parameters.length; i++) {
+        parameters[i] = token(stmt.parameters.get(i));
+      }
+      return node(FUNCTION, token(stmt.name), list(parameters),
+              statementList(stmt.body));
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      return node(IF, expr(stmt.condition), stmt(stmt.thenBranch),
+              stmt(stmt.elseBranch));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return node(PRINT, expr(stmt.expression), NONE, NONE);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return node(RETURN, token(stmt.keyword), expr(stmt.value), NONE);
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt) {
+      return node(YIELD, token(stmt.keyword), expr(stmt.value), NONE);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      return node(VAR, token(stmt.name), expr(stmt.initializer), NONE);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      return node(WHILE, expr(stmt.condition), stmt(stmt.body), NONE);
+    }
+  }
+  
+  /**
+   * rebuilds statement objects from the arrays
+   */
+  private class Reader {
+    private Token token(int index) {
+      if(index == NONE) return null;
+      TokenType type = tokenType(index);
+      Object literal = null;
+      if(type == TokenType.NUMBER) literal = Double.parseDouble(lexeme(index));
+      return new Token(type, lexeme(index), literal, line(index));
+    }
+    
+    List<Stmt> statements(int list) {
+      List<Stmt> statements = new ArrayList<>(listSize(list));
+      for(int i = 0; i < listSize(list); i++) {
+        statements.add(stmt(listItem(list, i)));
+      }
+      return statements;
+    }
+    
+    private Expr expr(int node) {
+      if(node == NONE) return null;
+      int a = operand(node, 0), b = operand(node, 1), c = operand(node, 2);
+      switch(kind(node)) {
+        case ASSIGN: return new Expr.Assign(token(a), expr(b));
+        case BINARY: return new Expr.Binary(expr(a), token(b), expr(c));
+        case CALL: {
+          List<Expr> arguments = new ArrayList<>(listSize(c));
+          for(int i = 0; i < listSize(c); i++) {
+            arguments.add(expr(listItem(c, i)));
+          }
+          return new Expr.Call(expr(a), token(b), arguments);
+        }
+        case GET: return new Expr.Get(expr(a), token(b));
+        case GROUPING: return new Expr.Grouping(expr(a));
+        case LITERAL: return new Expr.Literal(constant(a), b);
+        case LOGICAL: return new Expr.Logical(expr(a), token(b), expr(c));
+        case SET: return new Expr.Set(expr(a), token(b), expr(c));
+        case SUPER: return new Expr.Super(token(a), token(b));
+        case THIS: return new Expr.This(token(a));
+        case UNARY: return new Expr.Unary(token(a), expr(b));
+        case VARIABLE: return new Expr.Variable(token(a));
+        case AWAIT: return new Expr.Await(token(a), expr(b));
+      }
+      throw new IllegalStateException("Node " + node + " is not an expression. ");
+    }
+    
+    private Stmt stmt(int node) {
+      if(node == NONE) return null;
+      int a = operand(node, 0), b = operand(node, 1), c = operand(node, 2);
+      switch(kind(node)) {
+        case BLOCK: return new Stmt.Block(statements(a));
+        case CLASS: {
+          List<Stmt.Function> methods = new ArrayList<>(listSize(c));
+          for(int i = 0; i < listSize(c); i++) {
+            methods.add((Stmt.Function)stmt(listItem(c, i)));
+          }
+          return new Stmt.Class(token(a), expr(b), methods);
+        }
+        case EXPRESSION: return new Stmt.Expression(expr(a));
+        case FUNCTION: {
+          List<Token> parameters = new ArrayList<>(listSize(b));
+          for(int i = 0; i < listSize(b); i++) {
+            parameters.add(token(listItem(b, i)));
+          }
+          return new Stmt.Function(token(a), parameters, statements(c));
+        }
+        case IF: return new Stmt.If(expr(a), stmt(b), stmt(c));
+        case PRINT: return new Stmt.Print(expr(a));
+        case RETURN: return new Stmt.Return(token(a), expr(b));
+        case VAR: return new Stmt.Var(token(a), expr(b));
+        case WHILE: return new Stmt.While(expr(a), stmt(b));
+        case YIELD: return new Stmt.Yield(token(a), expr(b));
+      }
+      throw new IllegalStateException("Node " + node + " is not a statement. ");
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Tracks whether flight recorder is recording, so the interpreter only
+ * makes its events when something will keep them. Loading an event class
+ * is enough to make the JVM compile the interpreter less well, with more
+ * allocation, so no event class is touched until a recording starts.
+ * The flags are kept up to date by a recorder listener, which does not
+ * start flight recorder itself.
+ * 
+ * This class is read on every scan, parse and runtime error, so it only
+ * touches jdk.jfr through Listener. On a runtime without the jdk.jfr
+ * module installing the listener fails, the flags stay false and no
+ * event class is ever loaded.
+ * @author Will
+ */
+class FlightEvents {
+  /**
+   * is any recording running
+   */
+  static volatile boolean recording = false;
+  
+  /**
+   * is a recording taking function call events
+   */
+  static volatile boolean calls = false;
+  
+  static {
+    try {
+      Listener.install();
+    } catch (LinkageError e) {
+      // no jdk.jfr in this runtime, nothing can record events
+    }
+  }
+  
+  private FlightEvents() {
+  }
+  
+  /**
+   * updates the flags when recordings start and stop
+   */
+  private static class Listener implements FlightRecorderListener {
+    static void install() {
+      FlightRecorder.addListener(new Listener());
+    }
+    
+    @Override
+    public void recorderInitialized(FlightRecorder recorder) {
+      update();
+    }
+
+    @Override
+    public void recordingStateChanged(Recording changed) {
+      update();
+    }
+    
+    private static void update() {
+      boolean running = FlightRecorder.getFlightRecorder().getRecordings().stream()
+              .anyMatch((r) -> r.getState() == RecordingState.RUNNING);
+      calls = running && EventType.getEventType(FunctionCallEvent.class).isEnabled();
+      recording = running;
+    }
+  }
+}
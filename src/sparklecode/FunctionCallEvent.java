@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for a call of a Sparkle function that took longer
+ * than the threshold, 20 ms unless the recording settings change it.
+ * Calls are far too frequent to make an event for each one, so CallStack
+ * only makes them while FlightEvents says a recording takes them.
+ * @author Will
+ */
+@Name("sparkle.FunctionCall")
+@Label("Sparkle Function Call")
+@Category("Sparkle")
+@Description("Call of a script function that took longer than the threshold")
+@Threshold("20 ms")
+@StackTrace(false)
+class FunctionCallEvent extends jdk.jfr.Event {
+  @Label("Function")
+  String function;
+  
+  @Label("Declared At")
+  @Description("Line the function is declared on")
+  int line;
+  
+  @Label("Depth")
+  @Description("Sparkle functions on the stack below this one")
+  int depth;
+  
+  /**
+   * start timing a call
+   * @return event
+   */
+  static FunctionCallEvent start() {
+    FunctionCallEvent event = new FunctionCallEvent();
+    event.begin();
+    return event;
+  }
+  
+  /**
+   * record the call if it took longer than the threshold
+   * @param function name of the function
+   * @param line line it is declared on
+   * @param depth functions on the stack below it
+   */
+  void finish(String function, int line, int depth) {
+    end();
+    if (shouldCommit()) {
+      this.function = function;
+      this.line = line;
+      this.depth = depth;
+      commit();
+    }
+  }
+}
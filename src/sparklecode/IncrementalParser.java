@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a source file scanned, parsed and checked while it is edited.
+ * The file is split into top level declarations by SourceSplitter, and an
+ * edit only re-scans, re-parses and re-resolves the declarations it
+ * touches. Every other declaration keeps its statements, so the cost of an
+ * edit depends on the size of the declaration being edited rather than the
+ * size of the file. Declarations that only moved up or down keep their
+ * statements too, with the lines they were parsed at. The number of lines
+ * they moved is added when diagnostics are listed and when the statements
+ * are encoded, so Engine.compile turns the current statements into a
+ * program with the current lines without parsing the file again.
+ * @author Will
+ */
+public class IncrementalParser {
+  /**
+   * one top level declaration and what was found when parsing it
+   */
+  private class Chunk {
+    /**
+     * index of the first character of the declaration
+     */
+    int start;
+    
+    /**
+     * current line number of the first character
+     */
+    int line;
+    
+    /**
+     * line number the statements and diagnostics were produced with
+     */
+    int parsedLine;
+    
+    List<Stmt> statements;
+    
+    final List<Diagnostic> diagnostics = new ArrayList<>();
+    
+    /**
+     * names declared at the top level, checked against other chunks
+     */
+    final List<Token> declarations = new ArrayList<>();
+    
+    Chunk(int start, int line) {
+      this.start = start;
+      this.line = line;
+    }
+    
+    /**
+     * scan, parse and resolve the declaration
+     * @param end index after the last character
+     */
+    void parse(int end) {
+      diagnostics.clear();
+      declarations.clear();
+      parsedLine = line;
+      
+      ErrorReporter reporter = (errorLine, where, message) -> {
+        diagnostics.add(new Diagnostic(errorLine, where, message));
+      };
+      
+      Scanner scanner = new Scanner(source.substring(start, end), line, reporter);
+      Parser parser = new Parser(scanner.scanTokens(), reporter);
+      statements = parser.parse();
+      
+      if(diagnostics.isEmpty()) {
+        new Resolver(reporter).resolve(statements);
+      }
+      
+      statements.forEach((stmt) -> {
+        if(stmt instanceof Stmt.Var) declarations.add(((Stmt.Var)stmt).name);
+        if(stmt instanceof Stmt.Function) declarations.add(((Stmt.Function)stmt).name);
+        if(stmt instanceof Stmt.Class) declarations.add(((Stmt.Class)stmt).name);
+      });
+    }
+  }
+  
+  /**
+   * current source code
+   */
+  private String source;
+  
+  /**
+   * declarations in source order
+   */
+  private final List<Chunk> chunks = new ArrayList<>();
+  
+  /**
+   * parse a whole file
+   * @param source source code
+   */
+  public IncrementalParser(String source) {
+    this.source = source;
+    chunks.add(new Chunk(0, 1));
+    reparse(0);
+  }
+  
+  /**
+   * current source code
+   * @return source
+   */
+  public String source() {
+    return source;
+  }
+  
+  /**
+   * apply a text edit and re-parse the declarations it touches
+   * @param offset index of first character changed
+   * @param removed number of characters removed
+   * @param inserted text inserted at offset
+   */
+  public void edit(int offset, int removed, String inserted) {
+    if(offset < 0 || removed < 0 || offset + removed > source.length()) {
+      throw new IndexOutOfBoundsException("Edit outside of source. ");
+    }
+    
+    String removedText = source.substring(offset, offset + removed);
+    source = source.substring(0, offset) + inserted
+            + source.substring(offset + removed);
+    int delta = inserted.length() - removed;
+    int lineDelta = countLines(inserted) - countLines(removedText);
+    
+    // an edit at the very start of a declaration can join it to the one before
+    int first = chunkAt(offset);
+    if(first > 0 && chunks.get(first).start == offset) first--;
+    
+    // drop declarations inside the removed text, move the ones after it
+    int next = first + 1;
+    while(next < chunks.size() && chunks.get(next).start < offset + removed) {
+      chunks.remove(next);
+    }
+    for(int i = next; i < chunks.size(); i++) {
+      chunks.get(i).start += delta;
+      chunks.get(i).line += lineDelta;
+    }
+    
+    reparse(first);
+  }
+  
+  /**
+   * errors in the current source
+   * @return list of diagnostics in source order
+   */
+  public List<Diagnostic> diagnostics() {
+    List<Diagnostic> result = new ArrayList<>();
+    Set<String> declared = new HashSet<>();
+    
+    chunks.forEach((chunk) -> {
+      int shift = chunk.line - chunk.parsedLine;
+      chunk.diagnostics.forEach((d) -> {
+        result.add(shift == 0 ? d : new Diagnostic(d.line + shift, d.where, d.message));
+      });
+      
+      // names declared twice in one chunk were reported by its resolver
+      chunk.declarations.forEach((name) -> {
+        if(declared.contains(name.lexeme)) {
+          result.add(new Diagnostic(name.line + shift, " at '" + name.lexeme + "'",
+                  "Variable \"" + name.lexeme + "\" already defined in this scope. "));
+        }
+      });
+      chunk.declarations.forEach((name) -> declared.add(name.lexeme));
+    });
+    
+    result.sort(Comparator.comparingInt((d) -> d.line));    
+    return result;
+  }
+  
+  /**
+   * encode the statements of the current source, each declaration resolved
+   * on its own. declarations that moved since they were parsed are given
+   * their current lines in the copy, their statements are not changed
+   * @return flat tree with the current line numbers
+   */
+  FlatAst encode() {
+    List<List<Stmt>> parts = new ArrayList<>(chunks.size());
+    int[] shifts = new int[chunks.size()];
+    for(int i = 0; i < shifts.length; i++) {
+      Chunk chunk = chunks.get(i);
+      parts.add(chunk.statements);
+      shifts[i] = chunk.line - chunk.parsedLine;
+    }
+    return FlatAst.encode(parts, shifts);
+  }
+  
+  /**
+   * split and parse from the start of a chunk until the boundaries found
+   * line up with chunks that were not changed
+   * @param first index of first chunk to re-parse
+   */
+  private void reparse(int first) {
+    Chunk chunk = chunks.get(first);
+    SourceSplitter splitter = new SourceSplitter(source, chunk.start, chunk.line);
+    List<Chunk> parsed = new ArrayList<>();
+    
+    int next = first + 1;
+    while(true) {
+      int boundary = splitter.next();
+      
+      // boundaries found before this one no longer exist
+      while(next < chunks.size() && chunks.get(next).start < boundary) next++;
+      
+      chunk.parse(boundary);
+      parsed.add(chunk);
+      
+      if(boundary >= source.length()) {
+        next = chunks.size();
+        break;
+      }
+      if(next < chunks.size() && chunks.get(next).start == boundary) break;
+      
+      chunk = new Chunk(boundary, splitter.line());
+    }
+    
+    chunks.subList(first, next).clear();
+    chunks.addAll(first, parsed);
+  }
+  
+  /**
+   * find the chunk containing a character
+   * @param offset character index
+   * @return index of last chunk starting at or before offset
+   */
+  private int chunkAt(int offset) {
+    int low = 0;
+    int high = chunks.size() - 1;
+    while(low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if(chunks.get(mid).start <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+  
+  /**
+   * number of line breaks in text
+   * @param text text
+   * @return count
+   */
+  private static int countLines(String text) {
+    int count = 0;
+    for(int i = 0; i < text.length(); i++) {
+      if(text.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+}
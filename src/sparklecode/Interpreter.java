@@ -24,10 +24,12 @@
 
 package sparklecode;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Run list of statements
@@ -39,23 +41,111 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   /**
    * reference to base environment
    */
-  private final Environment globals = new Environment();
+  private final Environment globals;
   
   /**
    * The current environment
    */
-  private Environment env = globals;
+  private Environment env;
   
   /**
    * should expressions be printed explicitly
    */
   private boolean printExpr = false;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  
+  /**
+   * where print statements write to
+   */
+  private PrintStream out;
+  
+  /**
+   * where diagnostics a script asks for, like its trace, are written to
+   */
+  private PrintStream err = System.err;
+  
+  /**
+   * does this interpreter run an isolate, which must stay on one thread
+   */
+  private boolean isolated = false;
+  
+  /**
+   * where runtime errors that stop the program are sent
+   */
+  private final Consumer<RuntimeError> errorHandler;
+  
+  /**
+   * runs timer and future callbacks, shared with forked interpreters
+   */
+  private final EventLoop loop;
+  
+  /**
+   * Sparkle functions this interpreter is running, for the profiler
+   */
+  final CallStack stack = new CallStack();
+  
+  /**
+   * time taken by statements run inside the one being counted, only used
+   * when LineCounter is enabled
+   */
+  private long innerNanos = 0;
+  
+  /**
+   * trace buffer of the thread this interpreter last traced on, only
+   * used when Tracer is enabled
+   */
+  private Tracer.Buffer trace = null;
 
   /**
-   * Constructor to initialise native functions
+   * Constructor to initialise native functions, printing to stdout and
+   * reporting errors through SparkleCode
    */
   public Interpreter() {
+    this(System.out, SparkleCode::runtimeError);
+  }
+  
+  /**
+   * Constructor to initialise native functions
+   * @param out where print statements write to
+   * @param errorHandler where runtime errors are sent
+   */
+  Interpreter(PrintStream out, Consumer<RuntimeError> errorHandler) {
+    this(out, errorHandler, new Environment());
+    defineNatives(globals);
+  }
+  
+  /**
+   * Constructor using existing globals, which should already hold the
+   * native functions
+   * @param out where print statements write to
+   * @param errorHandler where runtime errors are sent
+   * @param globals global environment
+   */
+  Interpreter(PrintStream out, Consumer<RuntimeError> errorHandler, 
+          Environment globals) {
+    this(out, errorHandler, globals, null);
+  }
+  
+  /**
+   * @param out where print statements write to
+   * @param errorHandler where runtime errors are sent
+   * @param globals global environment
+   * @param loop event loop to share, or null to make one run by this
+   * interpreter
+   */
+  private Interpreter(PrintStream out, Consumer<RuntimeError> errorHandler, 
+          Environment globals, EventLoop loop) {
+    this.out = out;
+    this.errorHandler = errorHandler;
+    this.globals = globals;
+    this.env = globals;
+    this.loop = loop == null ? new EventLoop(this) : loop;
+  }
+  
+  /**
+   * add native functions to a global environment
+   * @param globals global environment
+   */
+  static void defineNatives(Environment globals) {
     globals.define("clock", new SparkleCallable() {
       @Override
       public Object call(Interpreter interp, List<Object> arguments) {
@@ -67,18 +157,374 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return 0;
       }
     });
+    
+    globals.define("nanoTime", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return (double)System.nanoTime();
+      }
+
+      @Override
+      public int arity() {
+        return 0;
+      }
+    });
+    
+    globals.define("bench", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return Bench.run(interp, arguments.get(0), arguments.get(1));
+      }
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+    });
+    
+    globals.define("dumpTrace", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        if (!Tracer.ENABLED) {
+          throw new RuntimeError(null, "Tracing is off, run with -trace or -Dsparkle.trace=true. ");
+        }
+        Tracer.dump(interp.err);
+        return null;
+      }
+
+      @Override
+      public int arity() {
+        return 0;
+      }
+    });
+    
+    globals.define("spawn", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        Object function = arguments.get(0);
+        if (!(function instanceof SparkleCallable) 
+                || ((SparkleCallable)function).arity() != 0) {
+          throw new RuntimeError(null, "Can only spawn functions with no parameters. ");
+        }
+        return new SparkleTask(interp, (SparkleCallable)function);
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("join", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof SparkleTask)) {
+          throw new RuntimeError(null, "Can only join tasks made by spawn. ");
+        }
+        return ((SparkleTask)arguments.get(0)).join();
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("Channel", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        Object capacity = arguments.get(0);
+        if (capacity == null) return new SparkleChannel(0);
+        if (!(capacity instanceof Double) || (double)capacity < 1) {
+          throw new RuntimeError(null, "Channel capacity must be a positive number or nil. ");
+        }
+        return new SparkleChannel((int)(double)capacity);
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("Isolate", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof String)) {
+          throw new RuntimeError(null, "Isolate source must be a string. ");
+        }
+        return new Isolate(interp, (String)arguments.get(0));
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("select", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return SparkleChannel.select(arguments);
+      }
+
+      @Override
+      public int arity() {
+        return -1;
+      }
+    });
+    
+    globals.define("List", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return new SparkleList(arguments);
+      }
+
+      @Override
+      public int arity() {
+        return -1;
+      }
+    });
+    
+    globals.define("setTimeout", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return interp.loop.setTimeout(callback("setTimeout", arguments.get(0)), 
+                AtomicNumber.number(arguments.get(1)));
+      }
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+    });
+    
+    globals.define("setInterval", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return interp.loop.setInterval(callback("setInterval", arguments.get(0)), 
+                AtomicNumber.number(arguments.get(1)));
+      }
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+    });
+    
+    globals.define("sleep", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return interp.loop.setTimeout(null, AtomicNumber.number(arguments.get(0)));
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("async", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return interp.loop.async(interp, callback("async", arguments.get(0)));
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("AtomicNumber", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return new AtomicNumber(AtomicNumber.number(arguments.get(0)));
+      }
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+    });
+    
+    globals.define("Counter", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return new Counter();
+      }
+
+      @Override
+      public int arity() {
+        return 0;
+      }
+    });
+    
+    globals.define("ConcurrentMap", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return new SparkleMap();
+      }
+
+      @Override
+      public int arity() {
+        return 0;
+      }
+    });
+    
+    globals.define("parallelMap", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return Parallel.map(interp, arguments.get(0), arguments.get(1));
+      }
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+    });
+    
+    globals.define("parallelReduce", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        return Parallel.reduce(interp, arguments.get(0), arguments.get(1), 
+                arguments.get(2));
+      }
+
+      @Override
+      public int arity() {
+        return 3;
+      }
+    });
+    
+    globals.define("parallelFor", new SparkleCallable() {
+      @Override
+      public Object call(Interpreter interp, List<Object> arguments) {
+        Parallel.forRange(interp, arguments.get(0), arguments.get(1), 
+                arguments.get(2));
+        return null;
+      }
+
+      @Override
+      public int arity() {
+        return 3;
+      }
+    });
+  }
+  
+  /**
+   * check an argument is a function with no parameters
+   * @param name native being called
+   * @param value argument
+   * @return function
+   */
+  private static SparkleCallable callback(String name, Object value) {
+    if (!(value instanceof SparkleCallable) 
+            || ((SparkleCallable)value).arity() > 0) {
+      throw new RuntimeError(null, name + " needs a function with no parameters. ");
+    }
+    return (SparkleCallable)value;
+  }
+  
+  /**
+   * start the body of an async function, see EventLoop.start
+   * @param function async function
+   * @param env environment holding its arguments
+   * @return future of its return value
+   */
+  SparkleFuture startAsync(SparkleFunction function, Environment env) {
+    return loop.start(this, function, env);
   }
   
-  public void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  /**
+   * new interpreter for another thread, sharing globals, output and
+   * error handler with this one but with its own current environment.
+   * spawn, async and the parallel natives all fork, so an isolate cannot
+   * start them
+   * @return interpreter
+   */
+  Interpreter fork() {
+    if (isolated) {
+      throw new RuntimeError(null, "Cannot run code on another thread inside an isolate. ");
+    }
+    Interpreter fork = new Interpreter(out, errorHandler, globals, loop);
+    fork.err = err;
+    return fork;
+  }
+  
+  /**
+   * new interpreter with its own globals, sharing only output and
+   * error handler with this one
+   * @return interpreter
+   */
+  Interpreter isolate() {
+    Interpreter isolate = new Interpreter(out, errorHandler);
+    isolate.err = err;
+    isolate.isolated = true;
+    return isolate;
+  }
+  
+  /**
+   * value of a global variable
+   * @param name variable name
+   * @return value, or null if it is not defined
+   */
+  Object global(String name) {
+    return globals.getAt(0, name);
+  }
+  
+  /**
+   * report an error that stopped some code, in the same way as interpret,
+   * and count it in the metrics
+   * @param error runtime error
+   */
+  void reportError(RuntimeError error) {
+    SparkleMetrics.error(error);
+    errorHandler.accept(error);
+  }
+  
+  /**
+   * change where print statements write to
+   * @param out output stream
+   */
+  void setOutput(PrintStream out) {
+    this.out = out;
+  }
+  
+  /**
+   * change where diagnostics a script asks for are written to
+   * @param err error stream
+   */
+  void setErrorOutput(PrintStream err) {
+    this.err = err;
+  }
+  
+  /**
+   * go back to the snapshot the globals were made from
+   */
+  void reset() {
+    loop.reset();
+    globals.reset();
+    env = globals;
+  }
+  
+  /**
+   * run timer and future callbacks until none are pending
+   */
+  void runEventLoop() {
+    try {
+      loop.run();
+    } catch (RuntimeError error) {
+      reportError(error);
+    }
   }
   
   private Object lookupVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if(distance != null) {
-      return env.getAt(distance, name.lexeme);
+    if(expr.depth != -1) {
+      return env.getAt(expr.depth, expr.slot);
     } else {
-      return globals.get(name);
+      if (TypeFeedback.ENABLED) TypeFeedback.global(expr, name);
+      return globals.getGlobal(expr, name);
     }
   }
   
@@ -87,6 +533,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param statements 
    */
   void interpret(List<Stmt> statements) {
+    long start = SparkleMetrics.started();
+    // lets the profiler show which top level statement is running
+    LineCounter.Lines lines = Profiler.active == null || statements.isEmpty() 
+            ? null : new LineCounter.Lines();
+    stack.push(null, lines == null ? 0 : lines.line(statements.get(0)));
     try {
       printExpr = false;
       int i = 0;
@@ -96,10 +547,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if(i >= statements.size() && SparkleCode.inRepl && i == 0){
           printExpr = true;
         }
+        if (lines != null) stack.line(lines.line(stmt));
         excecute(stmt);
       }
     } catch (RuntimeError error) {
-      SparkleCode.runtimeError(error);
+      reportError(error);
+    } finally {
+      stack.pop();
+      SparkleMetrics.finished(start);
     }
   }
   
@@ -112,6 +567,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitBinaryExpr(Expr.Binary expr) {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right); 
+    if (TypeFeedback.ENABLED) TypeFeedback.binary(expr, left, right);
 
     switch (expr.operator.type) {
       case BANG_EQUAL: return !isEqual(left, right);
@@ -130,10 +586,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return (double)left <= (double)right;
       case MINUS:
         checkNumberOperands(expr.operator, left, right);
-        return (double)left - (double)right;
+        return number((double)left - (double)right, expr.operator);
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
-          return (double)left + (double)right;
+          return number((double)left + (double)right, expr.operator);
         } 
 
         if (left instanceof String && right instanceof String) {
@@ -147,16 +603,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if(right.equals((double)0))
           throw new RuntimeError(expr.operator, "Divide by 0 error. ");
         checkNumberOperands(expr.operator, left, right);
-        return (double)left / (double)right;
+        return number((double)left / (double)right, expr.operator);
       case STAR:
         checkNumberOperands(expr.operator, left, right);
-        return (double)left * (double)right;
+        return number((double)left * (double)right, expr.operator);
     }
 
     // Unreachable.
     return null;
   }
 
+  /**
+   * wait for a future in top-level code, running event callbacks meanwhile
+   * if this interpreter owns the event loop. awaits in a function are run
+   * by resume, which stops the function instead, see EventLoop.await
+   * @param expr await expression
+   * @return value of the future, or the value itself if it is not a future
+   */
+  @Override
+  public Object visitAwaitExpr(Expr.Await expr) {
+    return await(expr, evaluate(expr.value));
+  }
+  
+  /**
+   * wait for a value to be ready
+   * @param expr await expression
+   * @param value value being awaited
+   * @return value of the future, or the value itself if it is not a future
+   */
+  private Object await(Expr.Await expr, Object value) {
+    if (!(value instanceof SparkleFuture)) return value;
+    
+    try {
+      return loop.await(this, (SparkleFuture)value);
+    } catch (RuntimeError error) {
+      if (error.token == null) throw new RuntimeError(expr.keyword, error.getMessage());
+      throw error;
+    }
+  }
+
+  /**
+   * result of arithmetic, counted as a new boxed number when allocations
+   * are tracked
+   * @param value result
+   * @param operator operator that made it
+   * @return result
+   */
+  private Object number(double value, Token operator) {
+    if (AllocationTracker.ENABLED) {
+      AllocationTracker.record(stack, AllocationTracker.NUMBER, 
+              AllocationTracker.NUMBER_BYTES, operator.line);
+    }
+    return value;
+  }
+
   /**
    * run group expression
    * @param expr group expression
@@ -191,7 +691,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return !isTruthy(right);
       case MINUS:
         checkNumberOperand(expr.operator, right);
-        return -(double)right;
+        return number(-(double)right, expr.operator);
     }
 
     // Unreachable.
@@ -207,7 +707,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) {
     Object o = evaluate(stmt.expression);
-    if(printExpr) System.out.println(stringify(o));
+    if(printExpr) out.println(stringify(o));
     return null;
   }
 
@@ -219,7 +719,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(stringify(value));
     return null;
   }
   
@@ -237,7 +737,41 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param stmt statement
    */
   private void excecute(Stmt stmt) {
-    stmt.accept(this);
+    if (Tracer.ENABLED) trace(stmt.trace);
+    if (LineCounter.ENABLED) {
+      excecuteCounted(stmt);
+    } else {
+      stmt.accept(this);
+    }
+  }
+  
+  /**
+   * add an entry to the current thread's trace buffer
+   * @param entry entry
+   */
+  private void trace(long entry) {
+    Tracer.Buffer buffer = trace;
+    if (buffer == null || buffer.thread != Thread.currentThread()) {
+      buffer = trace = Tracer.buffer();
+    }
+    buffer.add(entry);
+  }
+  
+  /**
+   * run visitor on statement and record its count and self time
+   * @param stmt statement
+   */
+  private void excecuteCounted(Stmt stmt) {
+    long outer = innerNanos;
+    innerNanos = 0;
+    long start = System.nanoTime();
+    try {
+      stmt.accept(this);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      LineCounter.record(stmt, elapsed - innerNanos);
+      innerNanos = outer + elapsed;
+    }
   }
   
   /**
@@ -307,7 +841,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param object object
    * @return string representation
    */
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) return "nil";
 
     // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -361,13 +895,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
-    Object value = evaluate(expr.value);
-
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      env.assignAt(distance, expr.name, value);
+    return assign(expr, evaluate(expr.value));
+  }
+  
+  /**
+   * assign a value that has already been worked out
+   * @param expr assignment
+   * @param value value to assign
+   * @return value
+   */
+  private Object assign(Expr.Assign expr, Object value) {
+    if (expr.depth != -1) {
+      env.assignAt(expr.depth, expr.slot, value);
     } else {
-      globals.assign(expr.name, value);
+      if (TypeFeedback.ENABLED) TypeFeedback.global(expr, expr.name);
+      globals.assignGlobal(expr, expr.name, value);
     }
     return value;
   }
@@ -379,6 +921,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitBlockStmt(Stmt.Block expr) {
+    if (AllocationTracker.ENABLED) {
+      AllocationTracker.record(stack, AllocationTracker.ENVIRONMENT, 
+              AllocationTracker.ENVIRONMENT_BYTES, 0);
+    }
     excecuteBlock(expr.statements, new Environment(env));
     return null;
   }
@@ -454,6 +1000,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitCallExpr(Expr.Call expr) {
    Object callee = evaluate(expr.callee);
+   if (TypeFeedback.ENABLED) TypeFeedback.call(expr, callee);
    
    if(!(callee instanceof SparkleCallable)) {
      throw new RuntimeError(expr.paren, "Can only call functions and classes. ");
@@ -465,14 +1012,196 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     });
    
     SparkleCallable function = (SparkleCallable)callee;
+    stack.line(expr.paren.line);
     
-    if(arguments.size() != function.arity()) {
+    if(function.arity() != -1 && arguments.size() != function.arity()) {
       throw new RuntimeError(expr.paren, "Expected " +
               function.arity() + " arguments but got " + 
               arguments.size() + " arguments. ");
     }
     
-    return function.call(this, arguments);
+    try {
+      Object result = function.call(this, arguments);
+      if (Tracer.ENABLED) trace(Tracer.call(expr.paren.line, function, result));
+      return result;
+    } catch (RuntimeError error) {
+      // native functions do not know where they were called from
+      if (error.token == null) throw new RuntimeError(expr.paren, error.getMessage());
+      throw error;
+    }
+  }
+
+  /**
+   * yield statements are run by resume, reaching one here means it is
+   * outside any generator body
+   * @param stmt yield statement
+   * @return void
+   */
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    throw new RuntimeError(stmt.keyword, "Can only yield inside a generator. ");
+  }
+  
+  /**
+   * run the body of a generator from where it stopped to its next yield,
+   * or of an async function to its next await of a future that has not
+   * finished. Blocks and while loops are entered as steps of the frame
+   * rather than on the Java stack, so the body can stop inside them and
+   * carry on from there the next time. Other statements cannot contain a
+   * yield or await of this body and are run as usual.
+   * @param frame state of the body
+   * @return true if it yielded, with the value in the frame, or stopped
+   * at an await, with the future in the frame. false if the body has
+   * finished, with its return value in the frame
+   */
+  boolean resume(SparkleGenerator.Frame frame) {
+    Environment previous = env;
+    stack.push(frame.function, frame.function.line());
+    try {
+      if (frame.awaiting != null) {
+        // finish the statement the body stopped at with the future's value
+        Stmt stmt = frame.awaiting;
+        SparkleFuture future = frame.future;
+        frame.awaiting = null;
+        frame.future = null;
+        env = frame.top.env;
+        complete(stmt, await(Resolver.awaited(stmt), future));
+      }
+      
+      SparkleGenerator.Step step;
+      while ((step = frame.top) != null) {
+        env = step.env;
+        if (step.index < step.statements.size()) {
+          if (start(frame, step.statements.get(step.index++))) return true;
+        } else if (step.loop != null && check(step.loop)) {
+          step.index = 0;
+        } else {
+          frame.top = step.parent;
+        }
+      }
+      return false;
+    } catch (Return r) {
+      frame.top = null;
+      frame.value = r.value;
+      return false;
+    } catch (RuntimeException e) {
+      frame.top = null;
+      throw e;
+    } finally {
+      env = previous;
+      stack.pop();
+    }
+  }
+  
+  /**
+   * start a statement of a generator body
+   * @param frame state of the body
+   * @param stmt statement
+   * @return true if the statement yielded
+   */
+  private boolean start(SparkleGenerator.Frame frame, Stmt stmt) {
+    if (!(stmt instanceof Stmt.Yield || stmt instanceof Stmt.Block 
+            || stmt instanceof Stmt.If || stmt instanceof Stmt.While
+            || Resolver.awaited(stmt) != null)) {
+      excecute(stmt);
+      return false;
+    }
+    if (Tracer.ENABLED) trace(stmt.trace);
+    if (!LineCounter.ENABLED) return step(frame, stmt);
+    
+    long outer = innerNanos;
+    innerNanos = 0;
+    long start = System.nanoTime();
+    try {
+      return step(frame, stmt);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      LineCounter.record(stmt, elapsed - innerNanos);
+      innerNanos = outer + elapsed;
+    }
+  }
+  
+  /**
+   * run a yield, await or if, or enter a block or while loop as a new step
+   * @param frame state of the body
+   * @param stmt statement
+   * @return true if the statement yielded or is waiting
+   */
+  private boolean step(SparkleGenerator.Frame frame, Stmt stmt) {
+    if (stmt instanceof Stmt.Yield) {
+      Stmt.Yield yield = (Stmt.Yield)stmt;
+      frame.value = yield.value == null ? null : evaluate(yield.value);
+      return true;
+    }
+    Expr.Await waiting = Resolver.awaited(stmt);
+    if (waiting != null) {
+      Object value = evaluate(waiting.value);
+      // only the loop's owner can carry on with the body later, other
+      // interpreters wait where they are
+      if (value instanceof SparkleFuture && !((SparkleFuture)value).isDone() 
+              && loop.isOwner(this)) {
+        frame.awaiting = stmt;
+        frame.future = (SparkleFuture)value;
+        return true;
+      }
+      complete(stmt, await(waiting, value));
+      return false;
+    }
+    if (stmt instanceof Stmt.If) {
+      Stmt.If branch = (Stmt.If)stmt;
+      if (isTruthy(evaluate(branch.condition))) {
+        return start(frame, branch.thenBranch);
+      }
+      return branch.elseBranch != null && start(frame, branch.elseBranch);
+    }
+    if (stmt instanceof Stmt.Block) {
+      if (AllocationTracker.ENABLED) {
+        AllocationTracker.record(stack, AllocationTracker.ENVIRONMENT, 
+                AllocationTracker.ENVIRONMENT_BYTES, 0);
+      }
+      frame.block(((Stmt.Block)stmt).statements, new Environment(env));
+    } else {
+      frame.loop((Stmt.While)stmt, env);
+    }
+    return false;
+  }
+  
+  /**
+   * do what a statement that awaited does with the value
+   * @param stmt expression statement, assignment, variable declaration
+   * or return
+   * @param value value of the await
+   */
+  private void complete(Stmt stmt, Object value) {
+    if (stmt instanceof Stmt.Var) {
+      env.define(((Stmt.Var)stmt).name.lexeme, value);
+    } else if (stmt instanceof Stmt.Return) {
+      throw new Return(value);
+    } else {
+      Expr expr = ((Stmt.Expression)stmt).expression;
+      if (expr instanceof Expr.Assign) assign((Expr.Assign)expr, value);
+    }
+  }
+  
+  /**
+   * check the condition of a while loop in a generator body, the time it
+   * takes counts as time of the loop
+   * @param loop while statement
+   * @return should the body run again
+   */
+  private boolean check(Stmt.While loop) {
+    if (!LineCounter.ENABLED) return isTruthy(evaluate(loop.condition));
+    
+    long outer = innerNanos;
+    innerNanos = 0;
+    long start = System.nanoTime();
+    try {
+      return isTruthy(evaluate(loop.condition));
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      LineCounter.time(loop, elapsed - innerNanos);
+      innerNanos = outer + elapsed;
+    }
   }
 
   @Override
@@ -518,14 +1247,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       env = env.enclosing;
     }
     env.assign(stmt.name, klass);
+    
+    if(FlightEvents.recording) {
+      ClassDefinitionEvent event = new ClassDefinitionEvent();
+      if(event.shouldCommit()) {
+        event.name = klass.name;
+        event.superclass = superclass == null ? null : klass.superclass.name;
+        event.methods = methods.size();
+        event.line = stmt.name.line;
+        event.commit();
+      }
+    }
     return null;
   }
   
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object obj = evaluate(expr.object);
-    if(obj instanceof SparkleInstance) {
-      return ((SparkleInstance) obj).get(expr.name);
+    if (TypeFeedback.ENABLED) TypeFeedback.get(expr, obj);
+    if(obj instanceof SparkleObject) {
+      // so a method bound by the get is counted against this line
+      if (AllocationTracker.ENABLED) stack.line(expr.name.line);
+      return ((SparkleObject) obj).get(expr.name);
     }
     
     throw new RuntimeError(expr.name, "Only instances have properties");
@@ -551,11 +1294,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
-    int distance = locals.get(expr);
-    SparkleClass superclass = (SparkleClass)env.getAt(distance, "super");
+    SparkleClass superclass = (SparkleClass)env.getAt(expr.depth, expr.slot);
     
-    SparkleInstance obj = (SparkleInstance)env.getAt(distance - 1, "this");
+    // "this" is the only variable in the scope inside "super"
+    SparkleInstance obj = (SparkleInstance)env.getAt(expr.depth - 1, 0);
     
+    if (AllocationTracker.ENABLED) stack.line(expr.method.line);
     SparkleFunction method = superclass.findMethod(obj, expr.method.lexeme);
     
     if (method == null) {
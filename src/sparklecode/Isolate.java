@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Script running with its own globals and objects, made by the Isolate
+ * native from source code.
+ * The source is run once, then every message sent to the isolate is passed
+ * to its global onMessage function and the return value is sent back as the
+ * reply. An isolate only ever runs on one thread at a time, so its objects
+ * need no locking, and it cannot spawn tasks or start other threads, but
+ * different isolates run in parallel on a fixed pool of threads. Timers and
+ * async functions started by the source or onMessage are run before the
+ * next message is handled, and if onMessage returns a future its value is
+ * the reply. Values are copied when they are passed between isolates:
+ * numbers, strings, booleans and nil are immutable, channels and isolates
+ * are shared, lists are copied, and instances are copied into frozen
+ * objects holding their fields. A channel that has been passed copies
+ * every value sent on it from then on. Nothing else can be passed.
+ * @author Will
+ */
+class Isolate implements SparkleObject {
+  private static final AtomicInteger THREADS = new AtomicInteger();
+  
+  /**
+   * runs every isolate, one daemon thread per core
+   */
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), (runnable) -> {
+    Thread thread = new Thread(runnable, "sparkle-isolate-" + THREADS.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+  
+  /**
+   * most messages handled before giving other isolates a turn
+   */
+  private static final int BATCH = 64;
+  
+  /**
+   * stands in for nil, which concurrent queues cannot hold
+   */
+  private static final Object NIL = new Object();
+  
+  /**
+   * interpreter holding this isolate's globals
+   */
+  private final Interpreter interpreter;
+  
+  /**
+   * compiled source
+   */
+  private final Program program;
+  
+  /**
+   * messages not yet handled
+   */
+  private final Queue<Object> mailbox = new ConcurrentLinkedQueue<>();
+  
+  /**
+   * replies to messages, in the order the messages were sent
+   */
+  private final SparkleChannel replies = new SparkleChannel(0);
+  
+  /**
+   * is the isolate queued or running on the pool
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  
+  /**
+   * has the source been run, only used by the thread running the isolate
+   */
+  private boolean started = false;
+  
+  private final SparkleCallable send = new NativeFunction("send", 1, 
+          (interp, arguments) -> {
+    send(arguments.get(0));
+    return null;
+  });
+  
+  private final SparkleCallable receive = new NativeFunction("receive", 0, 
+          (interp, arguments) -> replies.receive());
+  
+  /**
+   * compile source and start running it
+   * @param interp interpreter creating the isolate
+   * @param source source code defining onMessage
+   */
+  Isolate(Interpreter interp, String source) {
+    this.program = new Engine(false).compile(source);
+    if (program.hasErrors()) {
+      throw new RuntimeError(null, "Isolate source has errors: " 
+              + program.diagnostics().get(0) + ". ");
+    }
+    this.interpreter = interp.isolate();
+    schedule();
+  }
+  
+  /**
+   * copy a message into the isolate's mailbox
+   * @param message value to send
+   */
+  void send(Object message) {
+    Object copy = transfer(message, new IdentityHashMap<>());
+    mailbox.add(copy == null ? NIL : copy);
+    schedule();
+  }
+  
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "send": return send;
+      case "receive": return receive;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  @Override
+  public String toString() {
+    return "<isolate>";
+  }
+  
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      POOL.execute(this::drain);
+    }
+  }
+  
+  /**
+   * run the source if needed and handle a batch of messages
+   */
+  private void drain() {
+    try {
+      if (!started) {
+        started = true;
+        interpreter.interpret(program.statements());
+        interpreter.runEventLoop();
+      }
+
+      for (int i = 0; i < BATCH; i++) {
+        Object message = mailbox.poll();
+        if (message == null) break;
+        handle(message == NIL ? null : message);
+      }
+    } finally {
+      scheduled.set(false);
+      if (!mailbox.isEmpty()) schedule();
+    }
+  }
+  
+  /**
+   * pass a message to onMessage, run the event loop until nothing it
+   * started is pending and send back the reply, which is nil if the
+   * handler is missing or errors
+   * @param message copied message
+   */
+  private void handle(Object message) {
+    Object reply = null;
+    try {
+      Object handler = interpreter.global("onMessage");
+      if (!(handler instanceof SparkleCallable) 
+              || ((SparkleCallable)handler).arity() != 1) {
+        throw new RuntimeError(null, 
+                "Isolate must define onMessage with one parameter. ");
+      }
+      Object result = ((SparkleCallable)handler).call(interpreter, 
+              Collections.singletonList(message));
+      interpreter.runEventLoop();
+      if (result instanceof SparkleFuture) {
+        SparkleFuture future = (SparkleFuture)result;
+        if (!future.isDone()) {
+          throw new RuntimeError(null, "onMessage returned a future that cannot finish. ");
+        }
+        result = future.value();
+      }
+      reply = transfer(result, new IdentityHashMap<>());
+    } catch (RuntimeError error) {
+      interpreter.reportError(error);
+    }
+    replies.send(reply);
+  }
+  
+  /**
+   * copy a value so it can be used by another isolate
+   * @param value value owned by the sending isolate
+   * @param copies values already copied, so shared and cyclic
+   * objects are copied once
+   * @return value safe to hand to the receiving isolate
+   */
+  static Object transfer(Object value, Map<Object, Object> copies) {
+    if (value == null || value instanceof Double || value instanceof String
+            || value instanceof Boolean || value instanceof Isolate) {
+      return value;
+    }
+    if (value instanceof SparkleChannel) {
+      ((SparkleChannel)value).share();
+      return value;
+    }
+    
+    if (copies.containsKey(value)) return copies.get(value);
+    
+    if (value instanceof SparkleList) {
+      SparkleList copy = new SparkleList();
+      copies.put(value, copy);
+      ((SparkleList)value).elements().forEach(
+              (element) -> copy.elements().add(transfer(element, copies)));
+      return copy;
+    }
+    
+    Map<String, Object> source;
+    if (value instanceof SparkleInstance) {
+      source = ((SparkleInstance)value).fields();
+    } else if (value instanceof NativeObject) {
+      source = ((NativeObject)value).properties();
+    } else {
+      throw new RuntimeError(null, "Can only pass numbers, strings, booleans, "
+              + "nil, lists, instances, channels and isolates between isolates. ");
+    }
+    
+    Map<String, Object> properties = new HashMap<>();
+    NativeObject frozen = new NativeObject(value.toString(), properties);
+    copies.put(value, frozen);
+    source.forEach((key, field) -> properties.put(key, transfer(field, copies)));
+    return frozen;
+  }
+}
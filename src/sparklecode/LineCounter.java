@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often each statement runs and the time spent in it, for an
+ * annotated listing of the source showing which lines are hot.
+ * 
+ * Counting is switched on by the sparkle.count system property, which is
+ * read once into a constant. When it is off the JIT removes the check
+ * from the interpreter along with all the counting code, so normal runs
+ * pay nothing. The command line sets it with the -count option.
+ * 
+ * Times are self times: the time a statement took minus the time of the
+ * statements it ran, such as a loop body or the body of a function it
+ * called, so the times of all lines add up to the running time. Time
+ * spent waiting, in join or await for example, counts as time of the
+ * statement that waited.
+ * @author Will
+ */
+class LineCounter {
+  /**
+   * are statements being counted
+   */
+  static final boolean ENABLED = Boolean.getBoolean("sparkle.count");
+  
+  /**
+   * count and time of a statement
+   */
+  private static class Node {
+    final LongAdder count = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+  }
+  
+  /**
+   * lines listed again at the end of the listing
+   */
+  private static final int HOTTEST = 10;
+  
+  private static final Map<Stmt, Node> NODES = new ConcurrentHashMap<>();
+  
+  private LineCounter() {
+  }
+  
+  /**
+   * add a run of a statement
+   * @param stmt statement
+   * @param selfNanos time it took, not counting statements it ran
+   */
+  static void record(Stmt stmt, long selfNanos) {
+    Node node = NODES.computeIfAbsent(stmt, (key) -> new Node());
+    node.count.increment();
+    node.nanos.add(selfNanos);
+  }
+  
+  /**
+   * add time to a statement without counting another run of it
+   * @param stmt statement
+   * @param selfNanos time taken, not counting statements it ran
+   */
+  static void time(Stmt stmt, long selfNanos) {
+    NODES.computeIfAbsent(stmt, (key) -> new Node()).nanos.add(selfNanos);
+  }
+  
+  /**
+   * write the source with the number of times each line ran and the time
+   * spent on it. A line's count is the most times any statement starting
+   * on it ran, so a loop header is not counted once for each part of it.
+   * @param source source code
+   * @param statements statements parsed from the source
+   * @param out where to write
+   */
+  static void writeListing(String source, List<Stmt> statements, 
+          PrintStream out) {
+    String[] text = source.split("\r?\n", -1);
+    long[] counts = new long[text.length + 1];
+    long[] nanos = new long[text.length + 1];
+    boolean[] ran = new boolean[text.length + 1];
+    
+    Lines lines = new Lines();
+    statements.forEach(lines::statement);
+    for (Map.Entry<Stmt, Integer> entry : lines.lines.entrySet()) {
+      Node node = NODES.get(entry.getKey());
+      int line = entry.getValue();
+      if (node == null || line < 1 || line > text.length) continue;
+      ran[line] = true;
+      counts[line] = Math.max(counts[line], node.count.sum());
+      nanos[line] += node.nanos.sum();
+    }
+    
+    out.println(String.format("%10s %10s %5s  %s", "count", "self ms", "line", "source"));
+    for (int line = 1; line <= text.length; line++) {
+      if (ran[line]) {
+        out.println(String.format("%10d %10.3f %5d  %s", counts[line], 
+                nanos[line] / 1e6, line, text[line - 1]));
+      } else {
+        out.println(String.format("%10s %10s %5d  %s", "", "", line, text[line - 1]));
+      }
+    }
+    
+    List<Integer> hottest = new ArrayList<>();
+    for (int line = 1; line <= text.length; line++) {
+      if (ran[line]) hottest.add(line);
+    }
+    hottest.sort(Comparator.comparingLong((Integer line) -> nanos[line]).reversed());
+    out.println();
+    out.println("hottest lines");
+    for (int line : hottest.subList(0, Math.min(HOTTEST, hottest.size()))) {
+      out.println(String.format("%10d %10.3f %5d  %s", counts[line], 
+              nanos[line] / 1e6, line, text[line - 1].trim()));
+    }
+  }
+  
+  /**
+   * finds the line each statement starts on, from the first token in it
+   * that has one, and remembers every statement in the tree
+   */
+  static class Lines implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    final Map<Stmt, Integer> lines = new IdentityHashMap<>();
+    
+    int statement(Stmt stmt) {
+      int line = stmt.accept(this);
+      lines.put(stmt, line);
+      return line;
+    }
+    
+    /**
+     * line of a statement, only looked for the first time it is asked for
+     * @return line, 0 if the statement has none
+     */
+    int line(Stmt stmt) {
+      Integer line = lines.get(stmt);
+      return Math.max(line == null ? statement(stmt) : line, 0);
+    }
+    
+    /**
+     * find the line of a statement inside another, giving it the outer
+     * statement's line if it has none of its own, like an empty block
+     */
+    private void inner(Stmt stmt, int outer) {
+      if (statement(stmt) == -1) lines.put(stmt, outer);
+    }
+    
+    private int statements(List<? extends Stmt> statements) {
+      int line = -1;
+      for (Stmt stmt : statements) {
+        int found = statement(stmt);
+        if (line == -1) line = found;
+      }
+      return line;
+    }
+    
+    private int expression(Expr expr) {
+      return expr == null ? -1 : expr.accept(this);
+    }
+    
+    /**
+     * @return first line that is found
+     */
+    private static int first(int line, int other) {
+      return line == -1 ? other : line;
+    }
+    
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      return expr.name.line;
+    }
+
+    @Override
+    public Integer visitAwaitExpr(Expr.Await expr) {
+      return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return first(expression(expr.left), expr.operator.line);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      return first(expression(expr.callee), expr.paren.line);
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+      return first(expression(expr.object), expr.name.line);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return expression(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return expr.line;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return first(expression(expr.left), expr.operator.line);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+      return first(expression(expr.object), expr.name.line);
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+      return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+      return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return expr.name.line;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      // a block's own time is making its environment, counted with its
+      // first statement, or with the statement holding it if it is empty
+      return statements(stmt.statements);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+      statements(stmt.methods);
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return expression(stmt.expression);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      statements(stmt.body);
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      int line = expression(stmt.condition);
+      inner(stmt.thenBranch, line);
+      if (stmt.elseBranch != null) inner(stmt.elseBranch, line);
+      return line;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return expression(stmt.expression);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      int line = expression(stmt.condition);
+      inner(stmt.body, line);
+      return line;
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt) {
+      return stmt.keyword.line;
+    }
+  }
+}
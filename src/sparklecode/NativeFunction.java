@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Function implemented in java, used for the methods of native objects
+ * @author Will
+ */
+class NativeFunction implements SparkleCallable {
+  private final String name;
+  private final int arity;
+  private final BiFunction<Interpreter, List<Object>, Object> body;
+
+  /**
+   * create native function
+   * @param name name shown when printed
+   * @param arity number of arguments, -1 for any number
+   * @param body code run when called
+   */
+  NativeFunction(String name, int arity, 
+          BiFunction<Interpreter, List<Object>, Object> body) {
+    this.name = name;
+    this.arity = arity;
+    this.body = body;
+  }
+
+  @Override
+  public Object call(Interpreter interp, List<Object> arguments) {
+    return body.apply(interp, arguments);
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+  
+  @Override
+  public String toString() {
+    return "<native fn " + name + ">";
+  }
+}
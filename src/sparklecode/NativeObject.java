@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Read only object made by native code, such as the result of select
+ * @author Will
+ */
+class NativeObject implements SparkleObject {
+  private final String name;
+  private final Map<String, Object> properties;
+
+  /**
+   * create object
+   * @param name name shown when printed
+   * @param properties property names and values
+   */
+  NativeObject(String name, Map<String, Object> properties) {
+    this.name = name;
+    this.properties = properties;
+  }
+
+  @Override
+  public Object get(Token name) {
+    if (properties.containsKey(name.lexeme)) {
+      return properties.get(name.lexeme);
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  /**
+   * properties of the object
+   * @return read only view of property names and values
+   */
+  Map<String, Object> properties() {
+    return Collections.unmodifiableMap(properties);
+  }
+  
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a function over many values at once on the common fork join pool,
+ * used by the parallelMap, parallelReduce and parallelFor natives.
+ * The range is split into a few chunks per worker thread and each chunk is
+ * run by its own interpreter, sharing globals with the caller. Small
+ * ranges, and hosts with one core, run on the calling thread instead.
+ * 
+ * The function is called from several threads at once, so it should only
+ * read the variables it captures. Functions that assign to a local
+ * variable of an enclosing scope are refused. Assignments to globals and
+ * to instance fields are not checked, and are not atomic.
+ * @author Will
+ */
+final class Parallel {
+  /**
+   * ranges shorter than this run on the calling thread
+   */
+  static final int SEQUENTIAL_THRESHOLD = 64;
+  
+  /**
+   * chunks made for each worker thread, so threads that finish early can
+   * steal work from slower ones
+   */
+  private static final int CHUNKS_PER_WORKER = 4;
+  
+  private Parallel() {}
+  
+  /**
+   * work done for one chunk of a range
+   */
+  private interface Body {
+    /**
+     * @param worker interpreter to call functions with
+     * @param from first index of the chunk
+     * @param to index after the last one in the chunk
+     * @return result of the chunk
+     */
+    Object run(Interpreter worker, int from, int to);
+  }
+  
+  /**
+   * chunk of a range, split in half until it is small enough to run
+   */
+  private static class Chunk extends RecursiveTask<List<Object>> {
+    private final Interpreter interp;
+    private final Body body;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Chunk(Interpreter interp, Body body, int from, int to, int grain) {
+      this.interp = interp;
+      this.body = body;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected List<Object> compute() {
+      if (to - from <= grain) {
+        return Collections.singletonList(body.run(interp.fork(), from, to));
+      }
+      int middle = (from + to) >>> 1;
+      Chunk left = new Chunk(interp, body, from, middle, grain);
+      left.fork();
+      List<Object> right = new Chunk(interp, body, middle, to, grain).compute();
+      List<Object> results = new ArrayList<>(left.join());
+      results.addAll(right);
+      return results;
+    }
+  }
+  
+  /**
+   * run body over a range, in parallel if it is big enough
+   * @param interp interpreter calling the native
+   * @param start first index
+   * @param end index after the last one
+   * @param body work for each chunk
+   * @return result of each chunk, in order
+   */
+  private static List<Object> run(Interpreter interp, int start, int end, Body body) {
+    int count = end - start;
+    int workers = ForkJoinPool.getCommonPoolParallelism();
+    if (count < SEQUENTIAL_THRESHOLD || workers < 2) {
+      return Collections.singletonList(body.run(interp, start, end));
+    }
+    int grain = Math.max(1, count / (workers * CHUNKS_PER_WORKER));
+    return ForkJoinPool.commonPool().invoke(
+            new Chunk(interp, body, start, end, grain));
+  }
+  
+  /**
+   * call a function on every element of a list
+   * @param interp interpreter calling the native
+   * @param list list of values
+   * @param fn function with one parameter
+   * @return new list of return values, in the same order
+   */
+  static SparkleList map(Interpreter interp, Object list, Object fn) {
+    List<Object> elements = list("parallelMap", list);
+    SparkleCallable function = function("parallelMap", fn, 1);
+    Object[] results = new Object[elements.size()];
+    run(interp, 0, results.length, (worker, from, to) -> {
+      for (int i = from; i < to; i++) {
+        results[i] = function.call(worker, 
+                Collections.singletonList(elements.get(i)));
+      }
+      return null;
+    });
+    return new SparkleList(Arrays.asList(results));
+  }
+  
+  /**
+   * combine the elements of a list with a function. Chunks are reduced 
+   * separately and their results combined in order, so the function must
+   * be associative. init is combined with the result once, so it need not
+   * be an identity value
+   * @param interp interpreter calling the native
+   * @param list list of values
+   * @param fn function with two parameters
+   * @param init value to start from
+   * @return result, init if the list is empty
+   */
+  static Object reduce(Interpreter interp, Object list, Object fn, Object init) {
+    List<Object> elements = list("parallelReduce", list);
+    SparkleCallable function = function("parallelReduce", fn, 2);
+    if (elements.isEmpty()) return init;
+    
+    List<Object> partials = run(interp, 0, elements.size(), (worker, from, to) -> {
+      Object result = elements.get(from);
+      for (int i = from + 1; i < to; i++) {
+        result = function.call(worker, Arrays.asList(result, elements.get(i)));
+      }
+      return result;
+    });
+    
+    Object result = init;
+    for (Object partial : partials) {
+      result = function.call(interp, Arrays.asList(result, partial));
+    }
+    return result;
+  }
+  
+  /**
+   * call a function with every whole number from start up to end
+   * @param interp interpreter calling the native
+   * @param start first number
+   * @param end number after the last one
+   * @param fn function with one parameter
+   */
+  static void forRange(Interpreter interp, Object start, Object end, Object fn) {
+    if (!isWholeNumber(start) || !isWholeNumber(end)) {
+      throw new RuntimeError(null, "parallelFor range must be whole numbers. ");
+    }
+    SparkleCallable function = function("parallelFor", fn, 1);
+    run(interp, (int)(double)start, (int)(double)end, (worker, from, to) -> {
+      for (int i = from; i < to; i++) {
+        function.call(worker, Collections.singletonList((double)i));
+      }
+      return null;
+    });
+  }
+  
+  private static boolean isWholeNumber(Object value) {
+    return value instanceof Double 
+            && (double)value == Math.floor((double)value)
+            && Math.abs((double)value) <= Integer.MAX_VALUE;
+  }
+  
+  /**
+   * check an argument is a list
+   * @param name native being called
+   * @param value argument
+   * @return elements of the list
+   */
+  private static List<Object> list(String name, Object value) {
+    if (!(value instanceof SparkleList)) {
+      throw new RuntimeError(null, name + " needs a list. ");
+    }
+    return ((SparkleList)value).elements();
+  }
+  
+  /**
+   * check an argument is a function that can be run in parallel
+   * @param name native being called
+   * @param value argument
+   * @param arity number of parameters the function needs
+   * @return function
+   */
+  private static SparkleCallable function(String name, Object value, int arity) {
+    if (!(value instanceof SparkleCallable) 
+            || (((SparkleCallable)value).arity() != arity 
+                && ((SparkleCallable)value).arity() != -1)) {
+      throw new RuntimeError(null, name + " needs a function with " + arity 
+              + (arity == 1 ? " parameter. " : " parameters. "));
+    }
+    if (value instanceof SparkleFunction 
+            && ((SparkleFunction)value).assignsCaptured()) {
+      throw new RuntimeError(null, name + " cannot run " + value 
+              + " in parallel because it assigns to variables outside it. ");
+    }
+    return (SparkleCallable)value;
+  }
+}
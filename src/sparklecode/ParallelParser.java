@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scan and parse a large source on the fork-join pool.
+ * The source is cut at top level declarations found by SourceSplitter,
+ * neighbouring declarations are grouped into pieces of a useful size,
+ * and each piece is scanned and parsed on its own. Errors are held per
+ * piece and reported in source order once every piece is done.
+ * @author Will
+ */
+class ParallelParser {
+  /**
+   * sources shorter than this are parsed on the calling thread
+   */
+  static final int MIN_PARALLEL_SIZE = 64 * 1024;
+  
+  /**
+   * smallest amount of source given to one task
+   */
+  private static final int MIN_PIECE_SIZE = 16 * 1024;
+  
+  /**
+   * range of source parsed by one task
+   */
+  private class Piece {
+    final int start;
+    final int end;
+    final int line;
+    List<Stmt> statements;
+    final List<Diagnostic> diagnostics = new ArrayList<>();
+    
+    Piece(int start, int end, int line) {
+      this.start = start;
+      this.end = end;
+      this.line = line;
+    }
+    
+    void parse() {
+      ErrorReporter pieceReporter = (errorLine, where, message) -> {
+        diagnostics.add(new Diagnostic(errorLine, where, message));
+      };
+      Scanner scanner = new Scanner(source.substring(start, end), line, pieceReporter);
+      statements = new Parser(scanner.scanTokens(), pieceReporter).parse();
+    }
+  }
+  
+  /**
+   * parses a range of pieces, splitting it in half until one is left
+   */
+  private class ParseTask extends RecursiveAction {
+    private final List<Piece> pieces;
+    private final int from;
+    private final int to;
+    
+    ParseTask(List<Piece> pieces, int from, int to) {
+      this.pieces = pieces;
+      this.from = from;
+      this.to = to;
+    }
+    
+    @Override
+    protected void compute() {
+      if(to - from == 1) {
+        pieces.get(from).parse();
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new ParseTask(pieces, from, mid), new ParseTask(pieces, mid, to));
+    }
+  }
+  
+  /**
+   * source code
+   */
+  private final String source;
+  
+  /**
+   * where errors are sent
+   */
+  private final ErrorReporter reporter;
+  
+  /**
+   * create parser around source code
+   * @param source source code
+   * @param reporter where errors are sent
+   */
+  ParallelParser(String source, ErrorReporter reporter) {
+    this.source = source;
+    this.reporter = reporter;
+  }
+  
+  /**
+   * is the source big enough, and are there enough cores, to be worth
+   * parsing in parallel
+   * @param source source code
+   * @return boolean
+   */
+  static boolean worthwhile(String source) {
+    return source.length() >= MIN_PARALLEL_SIZE
+        && ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+  
+  /**
+   * convert source to list of statements
+   * @return statements in source order
+   */
+  List<Stmt> parse() {
+    List<Piece> pieces = split();
+    ForkJoinPool.commonPool().invoke(new ParseTask(pieces, 0, pieces.size()));
+    
+    List<Stmt> statements = new ArrayList<>();
+    pieces.forEach((piece) -> {
+      piece.diagnostics.forEach((d) -> reporter.report(d.line, d.where, d.message));
+      statements.addAll(piece.statements);
+    });
+    return statements;
+  }
+  
+  /**
+   * cut source at declaration boundaries into pieces of at least
+   * MIN_PIECE_SIZE characters
+   * @return list of pieces in source order
+   */
+  private List<Piece> split() {
+    List<Piece> pieces = new ArrayList<>();
+    SourceSplitter splitter = new SourceSplitter(source, 0, 1);
+    
+    int start = 0;
+    int line = 1;
+    while(start < source.length()) {
+      int end;
+      do {
+        end = splitter.next();
+      } while(end - start < MIN_PIECE_SIZE && end < source.length());
+      
+      pieces.add(new Piece(start, end, line));
+      start = end;
+      line = splitter.line();
+    }
+    
+    if(pieces.isEmpty()) pieces.add(new Piece(0, 0, 1));
+    return pieces;
+  }
+}
@@ -49,12 +49,27 @@ public class Parser {
    */
   private int current = 0;
   
+  /**
+   * where errors are sent
+   */
+  private final ErrorReporter reporter;
+  
   /**
    * Create new parser for list of tokens
    * @param tokens list of tokens
    */
   Parser(List<Token> tokens) {
+    this(tokens, SparkleCode.REPORTER);
+  }
+  
+  /**
+   * Create new parser for list of tokens
+   * @param tokens list of tokens
+   * @param reporter where errors are sent
+   */
+  Parser(List<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
   
   /**
@@ -62,6 +77,8 @@ public class Parser {
    * @return 
    */
   List<Stmt> parse() {
+    CompileEvent event = FlightEvents.recording ? CompileEvent.start() : null;
+    
     List<Stmt> statments = new ArrayList<>();
     while(!isAtEnd()){
       Stmt d = declaration();
@@ -70,6 +87,9 @@ public class Parser {
       }
     }
     
+    if(event != null) {
+      event.finish("parse", tokens.get(0).line, 0, tokens.size(), statments.size());
+    }
     return statments;
   }
   
@@ -117,6 +137,7 @@ public class Parser {
     if(match(PRINT)) return printStatement();
     if(match(RETURN)) return returnStatement();
     if(match(WHILE)) return whileStatement();
+    if(match(YIELD)) return yieldStatement();
     
     return expressionStatement();
   }
@@ -191,7 +212,7 @@ public class Parser {
    * @return expression
    */
   private Expr assignment() {
-    Expr expr = or();
+    Expr expr = binary(PREC_LOWEST);
 
     if (match(EQUAL)) {
       Token equals = previous();
@@ -212,101 +233,60 @@ public class Parser {
   }
   
   /**
-   * parse logical or || expression 
-   * @return expression
+   * binding power of each binary operator token, indexed by token type
+   * ordinal, 0 for tokens that are not binary operators
    */
-  private Expr or() {
-    Expr expr = and();
-
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
+  private static final int[] PRECEDENCE = new int[TokenType.values().length];
   
   /**
-   * parse logical and && expression
-   * @return expression
+   * lowest binding power of any binary operator
    */
-  private Expr and() {
-    Expr expr = equality();
+  private static final int PREC_LOWEST = 1;
 
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
-  }
-    
-  /**
-   * parse equality or inequality expression
-   * @return expression
-   */
-  private Expr equality() {
-    Expr expr = comparison();
-    
-    while(match(EQUAL_EQUAL, BANG_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    
-    return expr;
+  static {
+    PRECEDENCE[OR.ordinal()]            = 1;
+    PRECEDENCE[AND.ordinal()]           = 2;
+    PRECEDENCE[EQUAL_EQUAL.ordinal()]   = 3;
+    PRECEDENCE[BANG_EQUAL.ordinal()]    = 3;
+    PRECEDENCE[GREATER.ordinal()]       = 4;
+    PRECEDENCE[GREATER_EQUAL.ordinal()] = 4;
+    PRECEDENCE[LESS.ordinal()]          = 4;
+    PRECEDENCE[LESS_EQUAL.ordinal()]    = 4;
+    PRECEDENCE[MINUS.ordinal()]         = 5;
+    PRECEDENCE[PLUS.ordinal()]          = 5;
+    PRECEDENCE[SLASH.ordinal()]         = 6;
+    PRECEDENCE[STAR.ordinal()]          = 6;
   }
   
   /**
-   * match comparison operator expression
+   * parse binary and logical operators by precedence climbing.
+   * operators of the same level are folded left associatively in the loop,
+   * so only one java frame is used per precedence level rather than
+   * per operator
+   * @param minPrecedence lowest binding power this call may consume
    * @return expression
    */
-  private Expr comparison() {
-    Expr expr = addition();
+  private Expr binary(int minPrecedence) {
+    Expr expr = unary();
     
-    while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = addition();
-      expr = new Expr.Binary(expr, operator, right);
+    while(true) {
+      Token operator = peek();
+      int precedence = PRECEDENCE[operator.type.ordinal()];
+      if(precedence < minPrecedence) break;
+      
+      advance();
+      Expr right = binary(precedence + 1);
+      
+      if(operator.type == OR || operator.type == AND) {
+        expr = new Expr.Logical(expr, operator, right);
+      } else {
+        expr = new Expr.Binary(expr, operator, right);
+      }
     }
     
     return expr;
   }
   
-  /**
-   * match addition or subtraction expression
-   * @return expression
-   */
-  private Expr addition() {
-    Expr expr = multiplication();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = multiplication();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  /**
-   * match multiplication or division expression
-   * @return expression
-   */
-  private Expr multiplication() {
-    Expr expr = unary();
-
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-  
   /**
    * match unary operator expression
    * @return expression
@@ -317,6 +297,11 @@ public class Parser {
       Expr right = unary();
       return new Expr.Unary(operator, right);
     }
+    
+    if (match(AWAIT)) {
+      Token keyword = previous();
+      return new Expr.Await(keyword, unary());
+    }
 
     return call();
   }
@@ -365,12 +350,12 @@ public class Parser {
    * @return expression
    */
   private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
-    if (match(NIL)) return new Expr.Literal(null);
+    if (match(FALSE)) return new Expr.Literal(false, previous().line);
+    if (match(TRUE)) return new Expr.Literal(true, previous().line);
+    if (match(NIL)) return new Expr.Literal(null, previous().line);
 
     if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+      return new Expr.Literal(previous().literal, previous().line);
     }
     
     if(match(SUPER)){
@@ -414,7 +399,7 @@ public class Parser {
    * @return error to throw
    */
   private ParseError error(Token token, String message) {
-    SparkleCode.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
   
@@ -436,6 +421,7 @@ public class Parser {
         case WHILE:
         case PRINT:
         case RETURN:
+        case YIELD:
           return;
       }
 
@@ -523,6 +509,7 @@ public class Parser {
    * @return while statement in block
    */
    private Stmt forStatement() {
+    int line = previous().line;
     consume(LEFT_PAREN, "Expect ( after for. ");
     
     Stmt initializer;
@@ -557,7 +544,7 @@ public class Parser {
     }
     
     // set while loop condition
-    if(condition == null) condition = new Expr.Literal(true); // infinite loop
+    if(condition == null) condition = new Expr.Literal(true, line); // infinite loop
     body = new Stmt.While(condition, body);
     
     // add initializer in block
@@ -637,6 +624,18 @@ public class Parser {
     return new Stmt.Return(keyword, value);
   }
   
+  private Stmt yieldStatement() {
+    Token keyword = previous();
+    
+    Expr value = null;
+    if(!check(SEMICOLON)) {
+      value = expression();
+    }
+    
+    consumeStmtEnd("Expect ; after yield value");
+    return new Stmt.Yield(keyword, value);
+  }
+  
   private Stmt classDeclaration() {
     Token name = consume(IDENTIFIER, "Expect class name. ");
     
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler for Sparkle functions. While it runs, a daemon thread
+ * takes a snapshot of the call stack of every interpreter that is running
+ * script code, at a fixed interval, and counts how often each stack is
+ * seen. Threads that are waiting, for a join or a channel for example, are
+ * not sampled, so the counts show where time is spent running code.
+ * 
+ * Interpreters register their stacks the first time they call a function
+ * after profiling starts, so when no profiler is running the only cost is
+ * checking for one on each call. Code outside functions is shown at the
+ * line of the top level statement running.
+ * @author Will
+ */
+class Profiler {
+  /**
+   * profiler that is running, null if none is
+   */
+  static volatile Profiler active = null;
+  
+  /**
+   * stacks to sample, weak so interpreters that finish can be collected
+   */
+  private final Set<CallStack> stacks = Collections.synchronizedSet(
+          Collections.newSetFromMap(new WeakHashMap<>()));
+  
+  /**
+   * samples of each collapsed stack, only used by the sampling thread
+   * until it has stopped
+   */
+  private final Map<String, Integer> samples = new HashMap<>();
+  
+  private final long intervalNanos;
+  
+  private final Thread sampler;
+  
+  private volatile boolean stopped = false;
+  
+  /**
+   * @param intervalMicros time between samples
+   */
+  private Profiler(long intervalMicros) {
+    this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+    sampler = new Thread(this::sample, "sparkle-profiler");
+    sampler.setDaemon(true);
+  }
+  
+  /**
+   * start profiling every interpreter
+   * @param intervalMicros time between samples
+   * @return profiler
+   * @throws IllegalStateException if a profiler is already running
+   */
+  static synchronized Profiler start(long intervalMicros) {
+    if (active != null) {
+      throw new IllegalStateException("A profiler is already running. ");
+    }
+    Profiler profiler = new Profiler(intervalMicros);
+    active = profiler;
+    profiler.sampler.start();
+    return profiler;
+  }
+  
+  /**
+   * stop sampling and wait for the sampling thread to finish
+   */
+  void stop() {
+    synchronized (Profiler.class) {
+      if (active == this) active = null;
+    }
+    stopped = true;
+    LockSupport.unpark(sampler);
+    try {
+      sampler.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * start sampling a stack
+   * @param stack stack of an interpreter
+   */
+  void register(CallStack stack) {
+    stacks.add(stack);
+  }
+  
+  private void sample() {
+    while (!stopped) {
+      LockSupport.parkNanos(intervalNanos);
+      if (stopped) break;
+      CallStack[] current;
+      synchronized (stacks) {
+        current = stacks.toArray(new CallStack[0]);
+      }
+      for (CallStack stack : current) {
+        String sample = stack.sample();
+        if (sample != null) samples.merge(sample, 1, Integer::sum);
+      }
+    }
+  }
+  
+  /**
+   * number of samples taken of a running interpreter
+   * @return samples
+   */
+  int total() {
+    int total = 0;
+    for (int count : samples.values()) total += count;
+    return total;
+  }
+  
+  /**
+   * write samples in the collapsed stack format read by flame graph
+   * tools, one stack and its count per line. Call after stopping.
+   * @param out where to write
+   */
+  void writeCollapsed(PrintStream out) {
+    List<String> lines = new ArrayList<>(samples.keySet());
+    Collections.sort(lines);
+    for (String stack : lines) {
+      out.println(stack + " " + samples.get(stack));
+    }
+  }
+  
+  /**
+   * report of the functions with most samples. Self counts samples where
+   * the function was on top of the stack and total counts samples where
+   * it was anywhere on it. Call after stopping.
+   * @param top most functions to list
+   * @return report
+   */
+  String report(int top) {
+    Map<String, Integer> self = new HashMap<>();
+    Map<String, Integer> total = new HashMap<>();
+    for (Map.Entry<String, Integer> entry : samples.entrySet()) {
+      String[] frames = entry.getKey().split(";");
+      Set<String> seen = new HashSet<>();
+      for (String frame : frames) {
+        String function = frame.substring(0, frame.lastIndexOf(':'));
+        if (seen.add(function)) total.merge(function, entry.getValue(), Integer::sum);
+      }
+      self.merge(frames[frames.length - 1], entry.getValue(), Integer::sum);
+    }
+    
+    int count = total();
+    StringBuilder report = new StringBuilder();
+    report.append(String.format(Locale.ROOT, "%d samples%n%7s %7s  %s%n", count, 
+            "self", "total", "function:line"));
+    List<Map.Entry<String, Integer>> hottest = new ArrayList<>(self.entrySet());
+    hottest.sort((a, b) -> b.getValue() - a.getValue());
+    for (Map.Entry<String, Integer> entry : 
+            hottest.subList(0, Math.min(top, hottest.size()))) {
+      String frame = entry.getKey();
+      String function = frame.substring(0, frame.lastIndexOf(':'));
+      report.append(String.format(Locale.ROOT, "%6.1f%% %6.1f%%  %s%n", 
+              percent(entry.getValue(), count), 
+              percent(total.get(function), count), frame));
+    }
+    return report.toString();
+  }
+  
+  private static double percent(int samples, int total) {
+    return total == 0 ? 0 : samples * 100.0 / total;
+  }
+}
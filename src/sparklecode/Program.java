@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiled script, made by Engine.compile.
+ * A program is never changed after it is compiled, so it can be run by
+ * any number of contexts on different threads at the same time.
+ * 
+ * A program keeps its code as a FlatAst, a few arrays rather than a node
+ * object for every expression and token, so engines can keep many
+ * programs compiled. The resolved statement objects the interpreter runs
+ * are only softly held: the garbage collector can drop them from programs
+ * that are not being run, and they are decoded and resolved again the
+ * next time the program runs.
+ * @author Will
+ */
+public final class Program {
+  /**
+   * compact form of the code, null if it failed to compile
+   */
+  private final FlatAst code;
+  
+  /**
+   * resolved statements, decoded again from code when collected
+   */
+  private SoftReference<List<Stmt>> statements;
+  
+  /**
+   * errors found while compiling
+   */
+  private final List<Diagnostic> diagnostics;
+  
+  /**
+   * create program
+   * @param statements resolved statements
+   * @param diagnostics errors found while compiling
+   */
+  Program(List<Stmt> statements, List<Diagnostic> diagnostics) {
+    this(diagnostics.isEmpty() ? FlatAst.encode(statements) : null, diagnostics);
+    if(code != null) {
+      this.statements = new SoftReference<>(Collections.unmodifiableList(statements));
+    }
+  }
+  
+  /**
+   * create program whose statements are decoded when it first runs
+   * @param code compact form of the code, null if it has errors
+   * @param diagnostics errors found while compiling
+   */
+  Program(FlatAst code, List<Diagnostic> diagnostics) {
+    this.code = code;
+    this.diagnostics = Collections.unmodifiableList(diagnostics);
+    this.statements = new SoftReference<>(
+            code == null ? Collections.emptyList() : null);
+  }
+  
+  /**
+   * resolved statements to run, decoding them if they were collected
+   * @return statements
+   */
+  synchronized List<Stmt> statements() {
+    List<Stmt> resolved = statements.get();
+    if(resolved == null) {
+      resolved = code.decode();
+      new Resolver((line, where, message) -> {
+        throw new IllegalStateException("Decoded program failed to resolve: " 
+                + message);
+      }).resolve(resolved);
+      resolved = Collections.unmodifiableList(resolved);
+      statements = new SoftReference<>(resolved);
+    }
+    return resolved;
+  }
+  
+  /**
+   * compact form of the code, which can be walked directly or written out
+   * @return flat tree, or null if the program has errors
+   */
+  public FlatAst code() {
+    return code;
+  }
+  
+  /**
+   * errors found while compiling
+   * @return list of diagnostics in source order
+   */
+  public List<Diagnostic> diagnostics() {
+    return diagnostics;
+  }
+  
+  /**
+   * did the program fail to compile
+   * @return boolean
+   */
+  public boolean hasErrors() {
+    return !diagnostics.isEmpty();
+  }
+}
@@ -23,11 +23,10 @@
  */
 package sparklecode;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Stack;
 
 /**
  * Resolve any variables statically before interpreting code
@@ -48,83 +47,286 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     CLASS,
     SUBCLASS
   }
+  
+  /**
+   * a name declared in one scope
+   */
+  private static class Binding {
+    final String name;
+    
+    /**
+     * index of the scope the name is declared in, 0 is the top level
+     */
+    final int depth;
+    
+    /**
+     * index of the variable in its scope's environment
+     */
+    final int slot;
+    
+    /**
+     * binding with the same name in an enclosing scope, restored when
+     * this binding's scope ends
+     */
+    final Binding shadowed;
+    
+    /**
+     * has the variable been given a value
+     */
+    boolean defined = false;
+
+    Binding(String name, int depth, int slot, Binding shadowed) {
+      this.name = name;
+      this.depth = depth;
+      this.slot = slot;
+      this.shadowed = shadowed;
+    }
+  }
 
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  /**
+   * innermost binding of every name in scope, each links to the
+   * bindings it shadows
+   */
+  private final Map<String, Binding> bindings = new HashMap<>();
+  
+  /**
+   * bindings of all open scopes, innermost last
+   */
+  private Binding[] declared = new Binding[16];
+  private int declaredCount = 0;
+  
+  /**
+   * index in declared of the first binding of each open scope
+   */
+  private int[] scopeStart = new int[8];
+  private int scopeCount = 0;
+  
+  /**
+   * functions being resolved, innermost last, and the index of the scope
+   * holding each one's parameters
+   */
+  private Stmt.Function[] functions = new Stmt.Function[8];
+  private int[] functionScope = new int[8];
+  private int functionCount = 0;
+  
   private FunctionType currentFunction = FunctionType.NONE;
+  
+  /**
+   * number of expressions using global variables, each is numbered so
+   * environments can keep the cell it found in an array
+   */
+  private int globalUses = 0;
+  
+  /**
+   * while loops around the code being resolved in the current function
+   */
+  private int loops = 0;
+  
+  /**
+   * first return with a value in the current function, which is an error
+   * if the function turns out to be a generator
+   */
+  private Token valueReturn = null;
+  
+  /**
+   * first await in the current function, which is an error if the
+   * function turns out to be a generator
+   */
+  private Token firstAwait = null;
+  
+  /**
+   * await that is the whole value of the statement being resolved, the
+   * only place a function can stop to wait
+   */
+  private Expr.Await statementAwait = null;
   private ClassType currentClass = ClassType.NONE;
+  private final ErrorReporter reporter;
+
+  public Resolver() {
+    this(SparkleCode.REPORTER);
+  }
 
-  public Resolver(Interpreter interpreter) {
+  /**
+   * @param reporter where errors are sent
+   */
+  Resolver(ErrorReporter reporter) {
     beginScope();
-    this.interpreter = interpreter;
+    this.reporter = reporter;
   }
 
+  /**
+   * resolve a program or the part of one being added to a repl
+   * @param statements top level statements
+   */
   public void resolve(List<Stmt> statements) {
+    CompileEvent event = FlightEvents.recording ? CompileEvent.start() : null;
+    
+    resolveAll(statements);
+    if (Tracer.ENABLED) Tracer.number(statements);
+    
+    if(event != null) {
+      event.finish("resolve", 0, 0, 0, statements.size());
+    }
+  }
+  
+  private void resolveAll(List<Stmt> statements) {
     statements.forEach(this::resolve);
   }
 
   private void resolve(Stmt statement) {
+    statementAwait = awaited(statement);
     statement.accept(this);
   }
+  
+  /**
+   * the await a statement waits for before doing anything with its value:
+   * an expression statement, assignment, variable declaration or return
+   * whose whole value is an await
+   * @param stmt statement
+   * @return await, or null if the statement is not one of these
+   */
+  static Expr.Await awaited(Stmt stmt) {
+    Expr value = null;
+    if (stmt instanceof Stmt.Expression) {
+      value = ((Stmt.Expression)stmt).expression;
+      if (value instanceof Expr.Assign) value = ((Expr.Assign)value).value;
+    } else if (stmt instanceof Stmt.Var) {
+      value = ((Stmt.Var)stmt).initializer;
+    } else if (stmt instanceof Stmt.Return) {
+      value = ((Stmt.Return)stmt).value;
+    }
+    return value instanceof Expr.Await ? (Expr.Await)value : null;
+  }
 
   private void resolve(Expr expr) {
     expr.accept(this);
   }
 
+  /**
+   * store on the expression which scope and slot a name refers to.
+   * names declared at the top level live in the globals map, so they are
+   * looked up by name like undeclared globals, and the expression is
+   * numbered instead
+   * @param expr expression using the name
+   * @param name name token
+   */
   private void resolveLocal(Expr expr, Token name) {
-    for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-      }
+    Binding binding = bindings.get(name.lexeme);
+    if (binding == null || binding.depth == 0) {
+      expr.depth = -1;
+      expr.slot = globalUses++;
+      return;
     }
-
-    // not found, assume global
+    expr.depth = scopeCount - 1 - binding.depth;
+    expr.slot = binding.slot;
   }
 
   private void resolveFunction(Stmt.Function stmt, FunctionType type) {
     FunctionType enclosingFunction = currentFunction;
+    Token enclosingReturn = valueReturn;
+    Token enclosingAwait = firstAwait;
+    int enclosingLoops = loops;
     currentFunction = type;
+    valueReturn = null;
+    firstAwait = null;
+    loops = 0;
 
     beginScope();
+    if (functionCount == functions.length) {
+      functions = Arrays.copyOf(functions, functionCount * 2);
+      functionScope = Arrays.copyOf(functionScope, functionCount * 2);
+    }
+    functions[functionCount] = stmt;
+    functionScope[functionCount++] = scopeCount - 1;
+    
     stmt.parameters.forEach((param) -> {
       declare(param);
       define(param);
     });
-    resolve(stmt.body);
+    resolveAll(stmt.body);
+    
+    if (stmt.isGenerator && valueReturn != null) {
+      reporter.error(valueReturn, "Cannot return value from generator. ");
+    }
+    if (stmt.isGenerator && firstAwait != null) {
+      reporter.error(firstAwait, "Cannot await inside a generator. ");
+    }
+    
+    functions[--functionCount] = null;
     endScope();
 
     currentFunction = enclosingFunction;
+    valueReturn = enclosingReturn;
+    firstAwait = enclosingAwait;
+    loops = enclosingLoops;
   }
 
-  
-  
   private void beginScope() {
-    scopes.push(new HashMap<>());
+    if (scopeCount == scopeStart.length) {
+      scopeStart = Arrays.copyOf(scopeStart, scopeCount * 2);
+    }
+    scopeStart[scopeCount++] = declaredCount;
   }
 
   private void endScope() {
-    scopes.pop();
+    int start = scopeStart[--scopeCount];
+    while (declaredCount > start) {
+      Binding binding = declared[--declaredCount];
+      declared[declaredCount] = null;
+      if (binding.shadowed == null) {
+        bindings.remove(binding.name);
+      } else {
+        bindings.put(binding.name, binding.shadowed);
+      }
+    }
   }
-
-  private void declare(Token name) {
-    if (scopes.isEmpty()) {
-      return;
+  
+  /**
+   * add a name to the innermost scope
+   * @param name variable name
+   * @return new binding
+   */
+  private Binding bind(String name) {
+    int depth = scopeCount - 1;
+    Binding binding = new Binding(name, depth, 
+            declaredCount - scopeStart[depth], bindings.get(name));
+    
+    if (declaredCount == declared.length) {
+      declared = Arrays.copyOf(declared, declaredCount * 2);
     }
+    declared[declaredCount++] = binding;
+    bindings.put(name, binding);
+    return binding;
+  }
 
-    Map<String, Boolean> scope = scopes.peek();
-
-    if (scope.containsKey(name.lexeme)) {
-      SparkleCode.error(name,
+  private void declare(Token name) {
+    Binding existing = bindings.get(name.lexeme);
+    if (existing != null && existing.depth == scopeCount - 1) {
+      reporter.error(name,
               "Variable \"" + name.lexeme + "\" already defined in this scope. ");
     }
-    scope.put(name.lexeme, false);
+    bind(name.lexeme);
   }
 
   private void define(Token name) {
-    if (scopes.isEmpty()) {
-      return;
+    Binding binding = bindings.get(name.lexeme);
+    if (binding != null) {
+      binding.defined = true;
+    }
+  }
+
+  /**
+   * mark the functions an assignment reaches out of, so code running a
+   * function on several threads can tell it changes shared local variables
+   * @param name assigned name
+   */
+  private void markCaptured(Token name) {
+    Binding binding = bindings.get(name.lexeme);
+    if (binding == null || binding.depth == 0) return;
+    for (int i = functionCount - 1; 
+            i >= 0 && functionScope[i] > binding.depth; i--) {
+      functions[i].assignsCaptured = true;
     }
-    scopes.peek().put(name.lexeme, true);
   }
 
   @Override
@@ -132,6 +334,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     define(expr.name);
     resolve(expr.value);
     resolveLocal(expr, expr.name);
+    markCaptured(expr.name);
+    if (TypeFeedback.ENABLED && loops > 0 && expr.depth == -1) {
+      TypeFeedback.loop(expr);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitAwaitExpr(Expr.Await expr) {
+    // top-level code waits by running the event loop, functions stop at
+    // the await and carry on once the future finishes
+    if (currentFunction == FunctionType.INITIALIZER) {
+      reporter.error(expr.keyword, "Cannot await in initializer. ");
+    } else if (currentFunction != FunctionType.NONE) {
+      if (expr != statementAwait) {
+        reporter.error(expr.keyword, "An await inside a function must be the "
+                + "whole value of its statement, like var x = await f; ");
+      }
+      functions[functionCount - 1].isAsync = true;
+      if (firstAwait == null) firstAwait = expr.keyword;
+    }
+    resolve(expr.value);
     return null;
   }
 
@@ -185,10 +409,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      SparkleCode.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Cannot use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      SparkleCode.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Cannot use 'super' in a class with no superclass.");
     }
     
@@ -199,7 +423,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if(currentClass == ClassType.NONE) {
-      SparkleCode.error(expr.keyword, "Cannot use 'this' outside a method. ");
+      reporter.error(expr.keyword, "Cannot use 'this' outside a method. ");
     }
     resolveLocal(expr, expr.keyword);
     return null;
@@ -213,11 +437,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty()
-            && Objects.equals(
-                    scopes.peek().get(expr.name.lexeme),
-                    Boolean.FALSE)) {
-      SparkleCode.error(expr.name, "Cannot refrence local variable before it is initialised. ");
+    Binding binding = bindings.get(expr.name.lexeme);
+    if (binding != null && binding.depth == scopeCount - 1
+            && !binding.defined) {
+      reporter.error(expr.name, "Cannot refrence local variable before it is initialised. ");
     }
 
     resolveLocal(expr, expr.name);
@@ -227,7 +450,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
-    resolve(stmt.statements);
+    resolveAll(stmt.statements);
     endScope();
     return null;
   }
@@ -244,11 +467,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       currentClass = ClassType.SUBCLASS;
       resolve(stmt.superclass);
       beginScope();
-      scopes.peek().put("super", true);
+      bind("super").defined = true;
     }
     
     beginScope();
-    scopes.peek().put("this", true);
+    bind("this").defined = true;
     
     stmt.methods.forEach((method) -> {
       FunctionType declaration = FunctionType.METHOD;
@@ -300,18 +523,33 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      SparkleCode.error(stmt.keyword, "Cannot return from top-level code. ");
+      reporter.error(stmt.keyword, "Cannot return from top-level code. ");
     }
     if (stmt.value != null) {
       if(currentFunction == FunctionType.INITIALIZER) {
-        SparkleCode.error(stmt.keyword, "Cannot return value from initializer");
+        reporter.error(stmt.keyword, "Cannot return value from initializer");
       }
+      if (valueReturn == null) valueReturn = stmt.keyword;
       resolve(stmt.value);
     }
 
     return null;
   }
 
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    if (currentFunction == FunctionType.NONE) {
+      reporter.error(stmt.keyword, "Cannot yield from top-level code. ");
+    } else if (currentFunction == FunctionType.INITIALIZER) {
+      reporter.error(stmt.keyword, "Cannot yield from initializer. ");
+    } else {
+      functions[functionCount - 1].isGenerator = true;
+    }
+    if (stmt.value != null) resolve(stmt.value);
+
+    return null;
+  }
+
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
     declare(stmt.name);
@@ -324,8 +562,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    loops++;
     resolve(stmt.condition);
     resolve(stmt.body);
+    loops--;
     return null;
   }
 }
@@ -30,10 +30,22 @@ package sparklecode;
  */
 public class RuntimeError extends RuntimeException {
   /**
-   * token where the error occurred
+   * token where the error occurred, null when thrown by a native function,
+   * which is replaced by the call's token
    */
   final Token token;
   
+  /**
+   * trace buffer of the thread the error was raised on, null when Tracer
+   * is disabled
+   */
+  final Tracer.Buffer trace;
+  
+  /**
+   * entries that thread had recorded when the error was raised
+   */
+  final long traced;
+  
   /**
    * create new error
    * @param token where was the error
@@ -42,5 +54,18 @@ public class RuntimeError extends RuntimeException {
   RuntimeError(Token token, String message){
     super(message);
     this.token = token;
+    
+    if(Tracer.ENABLED && token != null) Tracer.error(token.line);
+    this.trace = Tracer.ENABLED ? Tracer.buffer() : null;
+    this.traced = Tracer.ENABLED ? trace.recorded() : 0;
+    
+    if(token != null && FlightEvents.recording) {
+      RuntimeErrorEvent event = new RuntimeErrorEvent();
+      if(event.shouldCommit()) {
+        event.message = message;
+        event.line = token.line;
+        event.commit();
+      }
+    }
   }
 }
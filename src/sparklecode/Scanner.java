@@ -59,15 +59,32 @@ public class Scanner {
   /**
    * the line number of the line that is currently being scanned
    */
-  private int line = 1;
+  private int line;
+  
+  /**
+   * where errors are sent
+   */
+  private final ErrorReporter reporter;
   
   /**
    * create a scanner around source code
    * @param code source code
    */
   public Scanner(String code) {
+    this(code, 1, SparkleCode.REPORTER);
+  }
+  
+  /**
+   * create a scanner around part of a file
+   * @param code source code
+   * @param line line number of the first character of code
+   * @param reporter where errors are sent
+   */
+  Scanner(String code, int line, ErrorReporter reporter) {
     this.tokens = new ArrayList<>();
-    source = code;
+    this.source = code;
+    this.line = line;
+    this.reporter = reporter;
   }
   
   /**
@@ -75,12 +92,19 @@ public class Scanner {
    * @return list of tokens in source code
    */
   List<Token> scanTokens() {
+    CompileEvent event = FlightEvents.recording ? CompileEvent.start() : null;
+    int firstLine = line;
+    
     while(!isAtEnd()) {
       start = current;
       scanToken();
     }
     
     tokens.add(new Token(EOF, "", null, line));
+    
+    if(event != null) {
+      event.finish("scan", firstLine, source.length(), tokens.size(), 0);
+    }
     return tokens;
   }
   
@@ -137,11 +161,12 @@ public class Scanner {
               if(level <= -1) break;
               advance();
             }
+            if(peek() == '\n') line++;
             advance();
             
             // if not exited last level of comment and at end of string
             if(isAtEnd()){
-              SparkleCode.error(start, "Unterminated block comment");
+              reporter.error(start, "Unterminated block comment");
             }
           }
           match('*');
@@ -160,7 +185,7 @@ public class Scanner {
         } else if(isAlpha(c)){
           identifier();
         } else {
-          SparkleCode.error(line, "Unexpected character " + c);
+          reporter.error(line, "Unexpected character " + c);
         }
         break;
     }
@@ -174,6 +199,7 @@ public class Scanner {
   static {
     KEYWORDS = new HashMap<>();
     KEYWORDS.put("and",    AND);
+    KEYWORDS.put("await",  AWAIT);
     KEYWORDS.put("class",  CLASS);
     KEYWORDS.put("else",   ELSE);
     KEYWORDS.put("false",  FALSE);
@@ -189,6 +215,7 @@ public class Scanner {
     KEYWORDS.put("true",   TRUE);
     KEYWORDS.put("var",    VAR);
     KEYWORDS.put("while",  WHILE);
+    KEYWORDS.put("yield",  YIELD);
   }
   
   /**
@@ -301,7 +328,7 @@ public class Scanner {
 
     // Unterminated string.
     if (isAtEnd()) {
-      SparkleCode.error(line, "Unterminated string");
+      reporter.error(line, "Unterminated string");
       return;
     }
 
@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+/**
+ * Fast pre-scan that finds where top level declarations start, without
+ * building tokens. A boundary is placed before a class, fn or var keyword
+ * that is outside of any brackets, strings and comments and follows a ; or }.
+ * The parser can only read those keywords as the start of a new declaration,
+ * so each piece of source between boundaries can be scanned and parsed on
+ * its own.
+ * @author Will
+ */
+class SourceSplitter {
+  /**
+   * source code
+   */
+  private final String source;
+  
+  /**
+   * index of current location through string
+   */
+  private int current;
+  
+  /**
+   * the line number of the line that is currently being scanned
+   */
+  private int line;
+  
+  /**
+   * line of the last boundary returned
+   */
+  private int boundaryLine;
+  
+  /**
+   * nesting of brackets and braces
+   */
+  private int depth = 0;
+  
+  /**
+   * last character outside of whitespace and comments,
+   * 'a' standing in for any word
+   */
+  private char last = '\0';
+  
+  /**
+   * create a splitter starting at a boundary
+   * @param source source code
+   * @param start index to start at, must not be inside a declaration
+   * @param line line number at start
+   */
+  SourceSplitter(String source, int start, int line) {
+    this.source = source;
+    this.current = start;
+    this.line = line;
+    this.boundaryLine = line;
+  }
+  
+  /**
+   * line number of the last boundary returned by next
+   * @return line
+   */
+  int line() {
+    return boundaryLine;
+  }
+  
+  /**
+   * find the next boundary
+   * @return index of the start of the next declaration, or the length
+   * of the source if there are no more
+   */
+  int next() {
+    while(current < source.length()) {
+      char c = source.charAt(current);
+      
+      if(c == '\n') {
+        line++;
+        current++;
+      } else if(c == ' ' || c == '\r' || c == '\t') {
+        current++;
+      } else if(c == '"') {
+        string();
+        last = c;
+      } else if(c == '/' && peekNext() == '/') {
+        while(current < source.length() && source.charAt(current) != '\n') current++;
+      } else if(c == '/' && peekNext() == '*') {
+        blockComment();
+      } else if(isAlphaNumeric(c)) {
+        int start = current;
+        while(current < source.length() && isAlphaNumeric(source.charAt(current))) current++;
+        
+        boolean boundary = depth == 0 && (last == ';' || last == '}')
+                && isDeclarationKeyword(start, current);
+        last = 'a';
+        if(boundary) {
+          boundaryLine = line;
+          return start;
+        }
+      } else {
+        if(c == '(' || c == '{') {
+          depth++;
+        } else if((c == ')' || c == '}') && depth > 0) {
+          depth--;
+        }
+        last = c;
+        current++;
+      }
+    }
+    
+    boundaryLine = line;
+    return source.length();
+  }
+  
+  /**
+   * is the word between start and end class, fn or var
+   * @param start index of first character
+   * @param end index after last character
+   * @return boolean
+   */
+  private boolean isDeclarationKeyword(int start, int end) {
+    return source.startsWith("class", start) && end - start == 5
+        || source.startsWith("fn", start) && end - start == 2
+        || source.startsWith("var", start) && end - start == 3;
+  }
+  
+  /**
+   * skip string literal, in the same way as the scanner
+   */
+  private void string() {
+    current++;
+    while(current < source.length() && source.charAt(current) != '"') {
+      if(source.charAt(current) == '\n') line++;
+      current++;
+    }
+    current++;
+  }
+  
+  /**
+   * skip nested block comment, in the same way as the scanner
+   */
+  private void blockComment() {
+    current += 2;
+    int level = 0;
+    while(current < source.length()) {
+      if(source.charAt(current) == '/' && peekNext() == '*') {
+        level++;
+        current++;
+      }
+      if(source.charAt(current) == '*' && peekNext() == '/') {
+        level--;
+        if(level <= -1) break;
+        current++;
+      }
+      if(source.charAt(current) == '\n') line++;
+      current++;
+    }
+    current += 2;
+  }
+  
+  /**
+   * view character after current without consuming it
+   * @return character
+   */
+  private char peekNext() {
+    if (current + 1 >= source.length()) return '\0';
+    return source.charAt(current + 1);
+  }
+  
+  /**
+   * is character in [a-zA-Z0-9_]
+   * @param c character
+   * @return boolean
+   */
+  private boolean isAlphaNumeric(char c) {
+    return (c >= 'a' && c <= 'z') ||
+           (c >= 'A' && c <= 'Z') ||
+           (c >= '0' && c <= '9') ||
+            c == '_';
+  }
+}
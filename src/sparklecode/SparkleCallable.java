@@ -40,7 +40,7 @@ interface SparkleCallable {
   
   /**
    * the number of arguments the function takes
-   * @return integer
+   * @return integer, -1 if it takes any number
    */
   int arity();
 }
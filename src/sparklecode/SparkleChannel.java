@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue for passing values between tasks, made by the Channel native.
+ * send blocks while a bounded channel is full and receive blocks while the
+ * channel is empty. Blocking uses java.util.concurrent locks, which park a
+ * virtual thread without holding on to its carrier thread.
+ * Once a channel has been passed to an isolate, every value sent on it is
+ * copied like a message to an isolate, so objects never reach another
+ * isolate through it.
+ * @author Will
+ */
+class SparkleChannel implements SparkleObject {
+  /**
+   * stands in for nil, which blocking queues cannot hold
+   */
+  private static final Object NIL = new Object();
+  
+  /**
+   * values sent and not yet received
+   */
+  private final BlockingQueue<Object> queue;
+  
+  /**
+   * threads blocked in select on this channel, woken by send
+   */
+  private final Set<Thread> selecting = ConcurrentHashMap.newKeySet();
+  
+  /**
+   * has the channel been passed to an isolate, so values are copied
+   */
+  private volatile boolean shared = false;
+  
+  /**
+   * value copied by its sender, once the channel is shared
+   */
+  private static final class Copy {
+    final Object value;
+    
+    Copy(Object value) {
+      this.value = value;
+    }
+  }
+  
+  private final SparkleCallable send = new NativeFunction("send", 1, 
+          (interp, arguments) -> {
+    send(arguments.get(0));
+    return null;
+  });
+  
+  private final SparkleCallable receive = new NativeFunction("receive", 0, 
+          (interp, arguments) -> receive());
+  
+  private final SparkleCallable size = new NativeFunction("size", 0, 
+          (interp, arguments) -> (double)size());
+  
+  /**
+   * create channel
+   * @param capacity most values held before send blocks, 0 for no limit
+   */
+  SparkleChannel(int capacity) {
+    queue = capacity > 0 
+            ? new ArrayBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+  }
+  
+  /**
+   * add value, waiting for space if the channel is full
+   * @param value value to send
+   */
+  void send(Object value) {
+    if (shared) {
+      // copied by the sender, which owns the value
+      value = new Copy(Isolate.transfer(value, new IdentityHashMap<>()));
+    }
+    try {
+      queue.put(value == null ? NIL : value);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while sending. ");
+    }
+    
+    selecting.forEach(LockSupport::unpark);
+  }
+  
+  /**
+   * start copying values sent on the channel, called when it is passed
+   * to an isolate
+   */
+  void share() {
+    shared = true;
+  }
+  
+  /**
+   * take the oldest value, waiting for one if the channel is empty
+   * @return value
+   */
+  Object receive() {
+    try {
+      return unwrap(queue.take());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while receiving. ");
+    }
+  }
+  
+  /**
+   * @return number of values waiting to be received
+   */
+  int size() {
+    return queue.size();
+  }
+  
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "send": return send;
+      case "receive": return receive;
+      case "size": return size;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+  
+  /**
+   * value as it is received. once the channel is shared, values sent
+   * before that are copied now, as their sender did not copy them
+   * @param value value taken from the queue
+   * @return value
+   */
+  private Object unwrap(Object value) {
+    if (value instanceof Copy) return ((Copy)value).value;
+    if (value == NIL) return null;
+    return shared ? Isolate.transfer(value, new IdentityHashMap<>()) : value;
+  }
+  
+  /**
+   * receive from whichever channel has a value first
+   * @param arguments channels to wait on
+   * @return object with the channel received from and the value
+   */
+  static Object select(List<Object> arguments) {
+    if (arguments.isEmpty()) {
+      throw new RuntimeError(null, "Cannot select from no channels. ");
+    }
+    SparkleChannel[] channels = new SparkleChannel[arguments.size()];
+    for (int i = 0; i < channels.length; i++) {
+      if (!(arguments.get(i) instanceof SparkleChannel)) {
+        throw new RuntimeError(null, "Can only select from channels. ");
+      }
+      channels[i] = (SparkleChannel)arguments.get(i);
+    }
+    
+    // start at a random channel so none is always preferred
+    int first = ThreadLocalRandom.current().nextInt(channels.length);
+    Thread self = Thread.currentThread();
+    
+    while (true) {
+      Object result = poll(channels, first);
+      if (result != null) return result;
+      
+      for (SparkleChannel channel : channels) channel.selecting.add(self);
+      try {
+        // a send between the poll above and registering would be missed
+        result = poll(channels, first);
+        if (result != null) return result;
+        
+        LockSupport.park(channels);
+        if (Thread.interrupted()) {
+          throw new RuntimeError(null, "Interrupted while selecting. ");
+        }
+      } finally {
+        for (SparkleChannel channel : channels) channel.selecting.remove(self);
+      }
+    }
+  }
+  
+  /**
+   * take a value from the first channel that has one
+   * @param channels channels to check
+   * @param first index to start checking from
+   * @return select result or null if all are empty
+   */
+  private static Object poll(SparkleChannel[] channels, int first) {
+    for (int i = 0; i < channels.length; i++) {
+      SparkleChannel channel = channels[(first + i) % channels.length];
+      Object value = channel.queue.poll();
+      if (value != null) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("channel", channel);
+        properties.put("value", channel.unwrap(value));
+        return new NativeObject("<select result>", properties);
+      }
+    }
+    return null;
+  }
+}
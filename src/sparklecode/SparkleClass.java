@@ -34,11 +34,17 @@ public class SparkleClass implements SparkleCallable {
   public final String name;
   public final Map<String, SparkleFunction> methods;
   public final SparkleClass superclass;
+  
+  /**
+   * kind AllocationTracker counts instances of this class as
+   */
+  private final String allocationKind;
 
   public SparkleClass(String name, SparkleClass superclass, Map<String, SparkleFunction> methods) {
     this.name = name;
     this.methods = methods;
     this.superclass = superclass;
+    this.allocationKind = AllocationTracker.INSTANCE + " " + name;
   }
   
   @Override
@@ -49,6 +55,11 @@ public class SparkleClass implements SparkleCallable {
   @Override
   public Object call(Interpreter interp, List<Object> arguments) {
     SparkleInstance instance = new SparkleInstance(this);
+    SparkleMetrics.created(instance);
+    if(AllocationTracker.ENABLED) {
+      AllocationTracker.record(interp.stack, allocationKind, 
+              AllocationTracker.INSTANCE_BYTES, interp.stack.currentLine());
+    }
     
     SparkleFunction init = methods.get("init");
     if(init != null){
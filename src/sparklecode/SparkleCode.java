@@ -27,6 +27,7 @@ package sparklecode;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -57,6 +58,11 @@ public class SparkleCode {
    * is the code from a repl or a file
    */
   static boolean inRepl = false;
+  
+  /**
+   * reporter that prints errors to stderr and sets hadError
+   */
+  static final ErrorReporter REPORTER = SparkleCode::report;
 
   /**
    * main method to call interpreter
@@ -64,7 +70,76 @@ public class SparkleCode {
    * @throws java.io.IOException
    */
   public static void main(String[] args) throws IOException {
-    runFile("sparkle.sc");
+    String path = "sparkle.sc";
+    String profile = null;
+    String count = null;
+    String allocations = null;
+    int metricsPort = -1;
+    String explain = null;
+    boolean trace = false;
+    long interval = 1000;
+    int top = 20;
+    for(int i = 0; i < args.length; i++) {
+      boolean hasValue = i + 1 < args.length;
+      switch(args[i]) {
+        case "-profile": if(hasValue) profile = args[++i]; break;
+        case "-profile-interval": if(hasValue) interval = Long.parseLong(args[++i]); break;
+        case "-profile-top": if(hasValue) top = Integer.parseInt(args[++i]); break;
+        case "-count": if(hasValue) count = args[++i]; break;
+        case "-allocations": if(hasValue) allocations = args[++i]; break;
+        case "-trace": trace = true; break;
+        case "-explain": if(hasValue) explain = args[++i]; break;
+        case "-metrics-port": if(hasValue) metricsPort = Integer.parseInt(args[++i]); break;
+        default: path = args[i];
+      }
+    }
+    
+    if(count != null) {
+      // read once when the interpreter first runs a statement
+      System.setProperty("sparkle.count", "true");
+    }
+    if(allocations != null) {
+      System.setProperty("sparkle.allocations", "true");
+    }
+    if(explain != null) {
+      System.setProperty("sparkle.explain", "true");
+    }
+    if(trace) {
+      System.setProperty("sparkle.trace", "true");
+    }
+    
+    // sample every interpreter while the script runs, then write the
+    // stacks for a flame graph and print the hottest functions
+    Profiler profiler = profile == null ? null : Profiler.start(interval);
+    
+    // publish metrics over JMX and http while the script runs
+    MetricsServer metrics = null;
+    if(metricsPort >= 0) {
+      SparkleMetrics.register();
+      metrics = SparkleMetrics.serve(metricsPort);
+      System.err.println("Metrics at http://localhost:" + metrics.port() + "/metrics");
+    }
+    
+    int status = runFile(path, count);
+    if(metrics != null) metrics.close();
+    if(profiler != null) {
+      profiler.stop();
+      try (PrintStream out = new PrintStream(profile, "UTF-8")) {
+        profiler.writeCollapsed(out);
+      }
+      System.err.print(profiler.report(top));
+    }
+    if(allocations != null) {
+      try (PrintStream out = new PrintStream(allocations, "UTF-8")) {
+        AllocationTracker.writeReport(out);
+      }
+    }
+    if(explain != null) {
+      try (PrintStream out = new PrintStream(explain, "UTF-8")) {
+        TypeFeedback.writeReport(out);
+      }
+    }
+    System.exit(status);
     /*
     if(args.length > 1) {
       System.out.println("Usage: SparkleCode [script]");
@@ -78,14 +153,28 @@ public class SparkleCode {
   /**
    * run provided file
    * @param path path to file
+   * @param listing where to write the source annotated with line counts,
+   * null unless counting is enabled
+   * @return exit status, -1 after a parse error and -2 after a runtime error
    * @throws IOException 
    */
-  private static void runFile(String path) throws IOException {
+  private static int runFile(String path, String listing) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    String code = new String(bytes, Charset.defaultCharset());
+    List<Stmt> statements = run(code);
+    
+    // wait for timers and async tasks the script left running
+    if(!hadError && !hadRuntimeError) INTERP.runEventLoop();
+    
+    if(listing != null && statements != null) {
+      try (PrintStream out = new PrintStream(listing, "UTF-8")) {
+        LineCounter.writeListing(code, statements, out);
+      }
+    }
     
-    if(hadError)System.exit(-1);
-    if(hadRuntimeError) System.exit(-2);
+    if(hadError) return -1;
+    if(hadRuntimeError) return -2;
+    return 0;
   }
   
   /**
@@ -109,24 +198,35 @@ public class SparkleCode {
   /**
    * run code string
    * @param code code
+   * @return statements that were run, null if there was a syntax or
+   * resolution error
    */
-  private static void run(String code) {
-    Scanner scanner = new Scanner(code);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+  private static List<Stmt> run(String code) {
+    long start = System.nanoTime();
+    List<Stmt> statements;
+    if(ParallelParser.worthwhile(code)) {
+      statements = new ParallelParser(code, REPORTER).parse();
+    } else {
+      Scanner scanner = new Scanner(code);
+      List<Token> tokens = scanner.scanTokens();
+      Parser parser = new Parser(tokens);
+      statements = parser.parse();
+    }
 
     // Stop if there was a syntax error.
-    if (hadError) return;
+    if (hadError) return null;
     
-    Resolver resolver = new Resolver(INTERP);
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
     
+    SparkleMetrics.compiled(System.nanoTime() - start);
+    
     // Stop if there was a resolution error.
-    if (hadError) return;
+    if (hadError) return null;
     
     //System.out.println(new AstPrinter().print(statements));
     INTERP.interpret(statements);
+    return statements;
   }
   
   /**
@@ -135,7 +235,7 @@ public class SparkleCode {
    * @param message error message
    */
   static void error(int line, String message) {
-    report(line, "", message);
+    REPORTER.error(line, message);
   }
   
   /**
@@ -144,11 +244,7 @@ public class SparkleCode {
    * @param message error message
    */
   static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
+    REPORTER.error(token, message);
   }
   /**
    * report parse error
@@ -166,7 +262,9 @@ public class SparkleCode {
    * @param error error thrown
    */
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "[line " + error.token.line + "]"); 
+    System.err.println(error.getMessage() 
+            + (error.token == null ? "" : "[line " + error.token.line + "]"));
+    if (error.trace != null) Tracer.dump(System.err, error.trace, error.traced);
     hadRuntimeError = true;
   }
 }
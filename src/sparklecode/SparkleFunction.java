@@ -35,24 +35,66 @@ public class SparkleFunction implements SparkleCallable {
   private final boolean isInitializer;
 
   public SparkleFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    this(declaration, closure, isInitializer, AllocationTracker.CLOSURE, 
+            AllocationTracker.CLOSURE_BYTES, declaration.name.line);
+  }
+  
+  /**
+   * @param kind what is being made, for allocation tracking
+   * @param bytes estimated size
+   * @param line line making it, 0 for the line the caller is at
+   */
+  private SparkleFunction(Stmt.Function declaration, Environment closure, 
+          boolean isInitializer, String kind, long bytes, int line) {
     this.declaration = declaration;
     this.closure = closure;
     this.isInitializer = isInitializer;
+    if(AllocationTracker.ENABLED) AllocationTracker.record(kind, bytes, line);
   }
   
   
+  /**
+   * run the function, make a generator if the function yields, or start
+   * it and return a future if it awaits
+   * @param interp interpreter calling the function
+   * @param arguments argument values
+   * @return return value, generator or future
+   */
   @Override
   public Object call(Interpreter interp, List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    for(int i = 0; i < declaration.parameters.size(); i++) {
-      environment.define(declaration.parameters.get(i).lexeme,
-              arguments.get(i));
+    if (declaration.isGenerator || declaration.isAsync) {
+      if(AllocationTracker.ENABLED) {
+        AllocationTracker.record(interp.stack, AllocationTracker.ENVIRONMENT, 
+                AllocationTracker.ENVIRONMENT_BYTES, declaration.name.line);
+      }
+      if(declaration.isAsync) {
+        return interp.startAsync(this, environment(arguments));
+      }
+      return new SparkleGenerator(this, environment(arguments));
     }
+    return invoke(interp, arguments);
+  }
+  
+  /**
+   * run the body of the function
+   * @param interp interpreter to run it with
+   * @param arguments argument values
+   * @return return value
+   */
+  Object invoke(Interpreter interp, List<Object> arguments) {
+    Environment environment = environment(arguments);
     
+    interp.stack.push(this, declaration.name.line);
+    if(AllocationTracker.ENABLED) {
+      AllocationTracker.record(interp.stack, AllocationTracker.ENVIRONMENT, 
+              AllocationTracker.ENVIRONMENT_BYTES, declaration.name.line);
+    }
     try {
       interp.excecuteBlock(declaration.body, environment);
     } catch(Return r) {
       return r.value;
+    } finally {
+      interp.stack.pop();
     }
     
     if(isInitializer) return closure.getAt(0, "this");
@@ -60,11 +102,56 @@ public class SparkleFunction implements SparkleCallable {
     return null;
   }
   
+  /**
+   * environment for a call to the function
+   * @param arguments argument values
+   * @return environment holding the parameters
+   */
+  private Environment environment(List<Object> arguments) {
+    Environment environment = new Environment(closure);
+    for(int i = 0; i < declaration.parameters.size(); i++) {
+      environment.define(declaration.parameters.get(i).lexeme,
+              arguments.get(i));
+    }
+    return environment;
+  }
+  
   public SparkleFunction bind(SparkleInstance instance) {
     Environment environment = new Environment(closure);
     environment.define("this", instance);
-    return new SparkleFunction(declaration, environment, isInitializer);
-  };
+    return new SparkleFunction(declaration, environment, isInitializer, 
+            AllocationTracker.BOUND_METHOD, AllocationTracker.BOUND_METHOD_BYTES, 0);
+  }
+
+  /**
+   * does the function assign to local variables declared outside it,
+   * which would race if it were called on several threads at once
+   * @return true if it changes captured variables
+   */
+  boolean assignsCaptured() {
+    return declaration.assignsCaptured;
+  }
+
+  /**
+   * @return name the function was declared with
+   */
+  String name() {
+    return declaration.name.lexeme;
+  }
+
+  /**
+   * @return statement declaring the function
+   */
+  Stmt.Function declaration() {
+    return declaration;
+  }
+  
+  /**
+   * @return line the function is declared on
+   */
+  int line() {
+    return declaration.name.line;
+  }
 
   @Override
   public int arity() {
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Value that will be ready later, made by setTimeout, setInterval, sleep,
+ * async and then, and waited for with await.
+ * A future finishes with a value or with the error its function stopped
+ * with. then(fn) makes a future of fn(value), run by the event loop once
+ * this one finishes. cancel() stops a timer that has not fired yet.
+ * @author Will
+ */
+class SparkleFuture implements SparkleObject {
+  private final EventLoop loop;
+  private final CompletableFuture<Object> result = new CompletableFuture<>();
+  
+  /**
+   * stops whatever would finish the future, null if it cannot be cancelled
+   */
+  private volatile Runnable canceller = null;
+  
+  /**
+   * has something waited for the result, so errors do not need reporting
+   */
+  private volatile boolean observed = false;
+  
+  private final SparkleCallable then = new NativeFunction("then", 1, 
+          (interp, arguments) -> {
+    if (!(arguments.get(0) instanceof SparkleCallable)) {
+      throw new RuntimeError(null, "Can only call then with a function. ");
+    }
+    return then((SparkleCallable)arguments.get(0));
+  });
+  
+  private final SparkleCallable done = new NativeFunction("done", 0, 
+          (interp, arguments) -> isDone());
+  
+  private final SparkleCallable cancel = new NativeFunction("cancel", 0, 
+          (interp, arguments) -> cancel());
+  
+  /**
+   * create unfinished future
+   * @param loop event loop that runs functions waiting for it
+   */
+  SparkleFuture(EventLoop loop) {
+    this.loop = loop;
+  }
+  
+  /**
+   * finish with a value
+   * @param value result
+   */
+  void complete(Object value) {
+    result.complete(value);
+  }
+  
+  /**
+   * finish with an error
+   * @param error error that stopped the work
+   */
+  void fail(RuntimeException error) {
+    result.completeExceptionally(error);
+  }
+  
+  /**
+   * @return has the future finished
+   */
+  boolean isDone() {
+    return result.isDone();
+  }
+  
+  /**
+   * set what cancel does
+   * @param canceller stops the work, called at most once
+   */
+  void onCancel(Runnable canceller) {
+    this.canceller = canceller;
+  }
+  
+  /**
+   * stop the work if it has not finished, finishing the future with nil
+   * @return true if the work was stopped
+   */
+  boolean cancel() {
+    Runnable stop = canceller;
+    if (stop == null || !result.complete(null)) return false;
+    canceller = null;
+    stop.run();
+    return true;
+  }
+  
+  /**
+   * run fn on the event loop with the value once the future finishes
+   * @param fn function with one parameter
+   * @return future of fn's return value
+   */
+  SparkleFuture then(SparkleCallable fn) {
+    observed = true;
+    return loop.then(this, fn);
+  }
+  
+  /**
+   * call back once the future finishes, on whichever thread finishes it
+   * @param action given the value, or the error
+   */
+  void whenDone(BiConsumer<Object, RuntimeException> action) {
+    result.whenComplete((value, error) -> action.accept(value, unwrap(error)));
+  }
+  
+  /**
+   * value of a finished future
+   * @return value
+   * @throws RuntimeException error the future finished with
+   */
+  Object value() {
+    observed = true;
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      throw unwrap(e);
+    }
+  }
+  
+  /**
+   * did the future fail without anything waiting for it
+   * @return error to report, or null
+   */
+  RuntimeException unobservedError() {
+    if (observed || !result.isCompletedExceptionally()) return null;
+    try {
+      result.join();
+      return null;
+    } catch (CompletionException e) {
+      return unwrap(e);
+    }
+  }
+  
+  private static RuntimeException unwrap(Throwable error) {
+    if (error == null) return null;
+    if (error instanceof CompletionException && error.getCause() != null) {
+      error = error.getCause();
+    }
+    if (error instanceof RuntimeException) return (RuntimeException)error;
+    return new RuntimeError(null, "Future failed: " + error + ". ");
+  }
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "then": return then;
+      case "done": return done;
+      case "cancel": return cancel;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  @Override
+  public String toString() {
+    return isDone() ? "<future done>" : "<future>";
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lazy sequence of values, returned by calling a function that yields.
+ * The body does not run until the first value is asked for, and then runs
+ * on the thread asking until it yields or returns.
+ * 
+ * The body is run stackless: the interpreter steps through the blocks and
+ * while loops the body is inside, keeping where it is in each as a Step,
+ * so at a yield it returns to the caller of next with nothing left on the
+ * Java stack. The body's locals live in the environments the steps hold,
+ * so a suspended generator is its steps and environments and no thread.
+ * Resuming re-enters the innermost step at the statement after the yield.
+ * @author Will
+ */
+class SparkleGenerator implements SparkleObject {
+  /**
+   * where in a block or while loop a suspended body is
+   */
+  static final class Step {
+    /**
+     * step this one is inside, null for the body itself
+     */
+    final Step parent;
+    
+    /**
+     * statements of the block, or the body of the loop
+     */
+    final List<Stmt> statements;
+    
+    /**
+     * loop whose condition is checked again once its body has run, null
+     * for a block
+     */
+    final Stmt.While loop;
+    
+    /**
+     * environment the statements run in
+     */
+    final Environment env;
+    
+    /**
+     * next statement to run
+     */
+    int index;
+
+    private Step(Step parent, List<Stmt> statements, Stmt.While loop, 
+            Environment env) {
+      this.parent = parent;
+      this.statements = statements;
+      this.loop = loop;
+      this.env = env;
+    }
+  }
+  
+  /**
+   * the body's state between calls to next, also used for the body of an
+   * async function while it waits
+   */
+  static final class Frame {
+    /**
+     * function whose body this is
+     */
+    final SparkleFunction function;
+    
+    /**
+     * innermost step, null once the body has finished
+     */
+    Step top;
+    
+    /**
+     * value of the last yield, or the return value of an async body
+     */
+    Object value;
+    
+    /**
+     * statement an async body stopped at, and the future it waits for,
+     * null unless it is waiting
+     */
+    Stmt awaiting;
+    SparkleFuture future;
+
+    /**
+     * @param function function whose body this is
+     * @param env environment holding the function's arguments
+     */
+    Frame(SparkleFunction function, Environment env) {
+      this.function = function;
+      this.top = new Step(null, function.declaration().body, null, env);
+    }
+    
+    /**
+     * enter a block
+     * @param statements statements of the block
+     * @param env environment of the block
+     */
+    void block(List<Stmt> statements, Environment env) {
+      top = new Step(top, statements, null, env);
+    }
+    
+    /**
+     * enter a while loop, its condition is checked before the body runs
+     * @param loop while statement
+     * @param env environment the loop is in
+     */
+    void loop(Stmt.While loop, Environment env) {
+      top = new Step(top, Collections.singletonList(loop.body), loop, env);
+      top.index = 1;
+    }
+  }
+  
+  private final Frame frame;
+  
+  /**
+   * is the body running, to stop it asking its own generator for a value
+   */
+  private boolean running = false;
+  
+  /**
+   * value fetched by hasNext and not yet returned by next
+   */
+  private Object next = null;
+  private boolean hasBuffered = false;
+  
+  private final SparkleCallable nextMethod = new NativeFunction("next", 0, 
+          (interp, arguments) -> next(interp));
+  
+  private final SparkleCallable hasNextMethod = new NativeFunction("hasNext", 0, 
+          (interp, arguments) -> hasNext(interp));
+
+  /**
+   * create generator, the body is not run yet
+   * @param function generator function
+   * @param env environment holding the function's arguments
+   */
+  SparkleGenerator(SparkleFunction function, Environment env) {
+    this.frame = new Frame(function, env);
+  }
+  
+  /**
+   * is there another value, running the body to its next yield if needed
+   * @param interp interpreter to run the body with
+   * @return false once the body has returned
+   */
+  synchronized boolean hasNext(Interpreter interp) {
+    if (!hasBuffered && frame.top != null) {
+      if (running) {
+        throw new RuntimeError(null, "Generator is already running. ");
+      }
+      running = true;
+      try {
+        hasBuffered = interp.resume(frame);
+      } finally {
+        running = false;
+      }
+      next = frame.value;
+      frame.value = null;
+    }
+    return hasBuffered;
+  }
+  
+  /**
+   * next value, running the body to its next yield if needed
+   * @param interp interpreter to run the body with
+   * @return yielded value
+   */
+  synchronized Object next(Interpreter interp) {
+    if (!hasNext(interp)) {
+      throw new RuntimeError(null, "Generator has no more values. ");
+    }
+    hasBuffered = false;
+    Object value = next;
+    next = null;
+    return value;
+  }
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "next": return nextMethod;
+      case "hasNext": return hasNextMethod;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  @Override
+  public String toString() {
+    return "<generator " + frame.function + ">";
+  }
+}
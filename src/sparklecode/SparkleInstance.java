@@ -23,6 +23,7 @@
  */
 package sparklecode;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,7 +31,7 @@ import java.util.Map;
  *
  * @author Will
  */
-public class SparkleInstance {
+public class SparkleInstance implements SparkleObject {
   private final SparkleClass klass;
   private final Map<String, Object> fields = new HashMap<>();
 
@@ -38,6 +39,7 @@ public class SparkleInstance {
     this.klass = klass;
   }
   
+  @Override
   public Object get(Token name) {
     if(fields.containsKey(name.lexeme)) {
       return fields.get(name.lexeme);
@@ -57,4 +59,19 @@ public class SparkleInstance {
   void set(Token name, Object value) {
     fields.put(name.lexeme, value);
   }
+  
+  /**
+   * @return class of the instance
+   */
+  SparkleClass klass() {
+    return klass;
+  }
+  
+  /**
+   * fields of the instance
+   * @return read only view of field names and values
+   */
+  Map<String, Object> fields() {
+    return Collections.unmodifiableMap(fields);
+  }
 }
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Growable list of values, made by the List native.
+ * Lists are not thread safe: several tasks may read one list at once, but
+ * one that is being changed must not be used by any other task.
+ * @author Will
+ */
+class SparkleList implements SparkleObject {
+  private final List<Object> elements = new ArrayList<>();
+  
+  private final SparkleCallable get = new NativeFunction("get", 1, 
+          (interp, arguments) -> elements.get(index(arguments.get(0))));
+  
+  private final SparkleCallable set = new NativeFunction("set", 2, 
+          (interp, arguments) -> {
+    elements.set(index(arguments.get(0)), arguments.get(1));
+    return null;
+  });
+  
+  private final SparkleCallable add = new NativeFunction("add", 1, 
+          (interp, arguments) -> {
+    elements.add(arguments.get(0));
+    return null;
+  });
+  
+  private final SparkleCallable size = new NativeFunction("size", 0, 
+          (interp, arguments) -> (double)elements.size());
+  
+  /**
+   * create empty list
+   */
+  SparkleList() {
+  }
+  
+  /**
+   * create list holding values
+   * @param elements initial values
+   */
+  SparkleList(List<Object> elements) {
+    this.elements.addAll(elements);
+  }
+  
+  /**
+   * values in the list
+   * @return backing list, changes are seen by scripts
+   */
+  List<Object> elements() {
+    return elements;
+  }
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "get": return get;
+      case "set": return set;
+      case "add": return add;
+      case "size": return size;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  /**
+   * check a value is a whole number in range and convert it to an index
+   * @param value index given by the script
+   * @return index
+   */
+  private int index(Object value) {
+    if (!(value instanceof Double) || (double)value != Math.floor((double)value)) {
+      throw new RuntimeError(null, "List index must be a whole number. ");
+    }
+    double index = (double)value;
+    if (index < 0 || index >= elements.size()) {
+      throw new RuntimeError(null, "List index " + Interpreter.stringify(value) 
+              + " out of range for list of size " + elements.size() + ". ");
+    }
+    return (int)index;
+  }
+  
+  @Override
+  public String toString() {
+    StringJoiner text = new StringJoiner(", ", "[", "]");
+    elements.forEach((element) -> text.add(
+            element == this ? "[...]" : Interpreter.stringify(element)));
+    return text.toString();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map that tasks can read and change at the same time, made by the
+ * ConcurrentMap native. Reads take no locks and writes only lock the
+ * entry being changed. The functions given to computeIfAbsent and merge
+ * run while their entry is locked, so they should be short. They can read
+ * the map they were given to, but changing it from one of them is a
+ * runtime error, as the change could wait for the lock its own task holds.
+ * Keys are compared like ==, so instances are only equal to themselves.
+ * @author Will
+ */
+class SparkleMap implements SparkleObject {
+  /**
+   * stands in for nil values, which concurrent maps cannot hold
+   */
+  private static final Object NIL = new Object();
+  
+  private final ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>();
+  
+  /**
+   * name of the method whose function is running on this thread, set while
+   * an entry is locked so changes to the map from inside it are refused
+   */
+  private final ThreadLocal<String> updating = new ThreadLocal<>();
+  
+  private final SparkleCallable get = new NativeFunction("get", 1, 
+          (interp, arguments) -> unwrap(map.get(key(arguments.get(0)))));
+  
+  private final SparkleCallable put = new NativeFunction("put", 2, 
+          (interp, arguments) -> {
+    checkUpdate();
+    return unwrap(map.put(key(arguments.get(0)), wrap(arguments.get(1))));
+  });
+  
+  private final SparkleCallable remove = new NativeFunction("remove", 1, 
+          (interp, arguments) -> {
+    checkUpdate();
+    return unwrap(map.remove(key(arguments.get(0))));
+  });
+  
+  private final SparkleCallable containsKey = new NativeFunction(
+          "containsKey", 1, 
+          (interp, arguments) -> map.containsKey(key(arguments.get(0))));
+  
+  private final SparkleCallable size = new NativeFunction("size", 0, 
+          (interp, arguments) -> (double)map.size());
+  
+  private final SparkleCallable keys = new NativeFunction("keys", 0, 
+          (interp, arguments) -> new SparkleList(Collections.list(map.keys())));
+  
+  /**
+   * value of key, or fn(key) stored as the value if there is none
+   */
+  private final SparkleCallable computeIfAbsent = new NativeFunction(
+          "computeIfAbsent", 2, (interp, arguments) -> {
+    SparkleCallable function = function(arguments.get(1), 1);
+    checkUpdate();
+    return unwrap(map.computeIfAbsent(key(arguments.get(0)), 
+            (key) -> update("computeIfAbsent", interp, function, 
+                    Collections.singletonList(key))));
+  });
+  
+  /**
+   * store value if key has no value, otherwise store fn(old value, value)
+   */
+  private final SparkleCallable merge = new NativeFunction("merge", 3, 
+          (interp, arguments) -> {
+    SparkleCallable function = function(arguments.get(2), 2);
+    checkUpdate();
+    return unwrap(map.merge(key(arguments.get(0)), wrap(arguments.get(1)), 
+            (old, value) -> update("merge", interp, function, 
+                    Arrays.asList(unwrap(old), unwrap(value)))));
+  });
+
+  @Override
+  public Object get(Token name) {
+    switch (name.lexeme) {
+      case "get": return get;
+      case "put": return put;
+      case "remove": return remove;
+      case "containsKey": return containsKey;
+      case "size": return size;
+      case "keys": return keys;
+      case "computeIfAbsent": return computeIfAbsent;
+      case "merge": return merge;
+    }
+    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'. ");
+  }
+  
+  /**
+   * call the function given to computeIfAbsent or merge while its entry is
+   * locked
+   * @return value to store
+   */
+  private Object update(String method, Interpreter interp, 
+          SparkleCallable function, List<Object> arguments) {
+    updating.set(method);
+    try {
+      return wrap(function.call(interp, arguments));
+    } finally {
+      updating.remove();
+    }
+  }
+  
+  /**
+   * refuse to change the map from inside the function given to
+   * computeIfAbsent or merge
+   */
+  private void checkUpdate() {
+    String method = updating.get();
+    if (method != null) {
+      throw new RuntimeError(null, "The function given to " + method 
+              + " cannot change the same map. ");
+    }
+  }
+  
+  private static Object key(Object key) {
+    if (key == null) {
+      throw new RuntimeError(null, "Map keys cannot be nil. ");
+    }
+    return key;
+  }
+  
+  private static Object wrap(Object value) {
+    return value == null ? NIL : value;
+  }
+  
+  private static Object unwrap(Object value) {
+    return value == NIL ? null : value;
+  }
+  
+  /**
+   * check an argument is a function taking some number of arguments
+   * @param value argument
+   * @param arity number of parameters needed
+   * @return function
+   */
+  private static SparkleCallable function(Object value, int arity) {
+    if (!(value instanceof SparkleCallable) 
+            || (((SparkleCallable)value).arity() != arity 
+                && ((SparkleCallable)value).arity() != -1)) {
+      throw new RuntimeError(null, "Expected a function with " + arity 
+              + (arity == 1 ? " parameter. " : " parameters. "));
+    }
+    return (SparkleCallable)value;
+  }
+  
+  @Override
+  public String toString() {
+    StringJoiner text = new StringJoiner(", ", "{", "}");
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      text.add(Interpreter.stringify(entry.getKey()) + ": " 
+              + Interpreter.stringify(unwrap(entry.getValue())));
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for a process running scripts, for monitoring an embedded
+ * interpreter. Every interpreter in the process adds to the same counters,
+ * which are LongAdders so updating them from many threads takes no locks.
+ * They can be read through JMX once register has been called, or in the
+ * Prometheus text format from prometheus or the endpoint started by serve.
+ * 
+ * Live objects are estimated by keeping a weak reference to a random one
+ * in every 64 instances made and counting those not yet collected.
+ * @author Will
+ */
+public final class SparkleMetrics implements SparkleMetricsMXBean {
+  /**
+   * name the bean is registered under
+   */
+  public static final String OBJECT_NAME = "sparklecode:type=Metrics";
+  
+  /**
+   * upper bounds in seconds of the execution time histogram buckets
+   */
+  private static final double[] BUCKETS = {
+    0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10
+  };
+  
+  /**
+   * most distinct error messages counted, others are counted as "other"
+   */
+  private static final int MAX_MESSAGES = 100;
+  
+  /**
+   * one in this many instances is tracked to estimate live objects
+   */
+  private static final int SAMPLE_EVERY = 64;
+  
+  private static final SparkleMetrics METRICS = new SparkleMetrics();
+  
+  private final LongAdder scriptsRun = new LongAdder();
+  private final LongAdder compiles = new LongAdder();
+  private final LongAdder compileNanos = new LongAdder();
+  private final LongAdder executionNanos = new LongAdder();
+  private final LongAdder[] executions = new LongAdder[BUCKETS.length + 1];
+  private final LongAdder runtimeErrors = new LongAdder();
+  private final Map<String, LongAdder> errorsByMessage = new ConcurrentHashMap<>();
+  private final LongAdder active = new LongAdder();
+  
+  /**
+   * weak references to the sampled instances, removed once collected
+   */
+  private final Set<Reference<Object>> sampled = ConcurrentHashMap.newKeySet();
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+  
+  private SparkleMetrics() {
+    for (int i = 0; i < executions.length; i++) executions[i] = new LongAdder();
+  }
+  
+  /**
+   * @return the process wide metrics
+   */
+  public static SparkleMetrics get() {
+    return METRICS;
+  }
+  
+  /**
+   * register the metrics with the platform MBean server, doing nothing if
+   * they already are
+   */
+  public static void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, 
+              new ObjectName(OBJECT_NAME));
+    } catch (InstanceAlreadyExistsException e) {
+      // registered before
+    } catch (JMException e) {
+      throw new IllegalStateException("Could not register metrics. ", e);
+    }
+  }
+  
+  /**
+   * serve the metrics in the Prometheus text format at /metrics on the
+   * loopback address
+   * @param port port to listen on, 0 for any free port
+   * @return server, close it to stop serving
+   * @throws IOException if the port cannot be used
+   */
+  public static MetricsServer serve(int port) throws IOException {
+    return new MetricsServer(port);
+  }
+  
+  /**
+   * count a compile
+   * @param nanos time it took
+   */
+  static void compiled(long nanos) {
+    METRICS.compiles.increment();
+    METRICS.compileNanos.add(nanos);
+  }
+  
+  /**
+   * count a program starting to run
+   * @return start time to pass to finished
+   */
+  static long started() {
+    METRICS.active.increment();
+    return System.nanoTime();
+  }
+  
+  /**
+   * count a program finishing
+   * @param start time from started
+   */
+  static void finished(long start) {
+    long nanos = System.nanoTime() - start;
+    METRICS.active.decrement();
+    METRICS.scriptsRun.increment();
+    METRICS.executionNanos.add(nanos);
+    
+    double seconds = nanos / 1e9;
+    int bucket = 0;
+    while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) bucket++;
+    METRICS.executions[bucket].increment();
+  }
+  
+  /**
+   * count a runtime error that stopped a program, a callback of the event
+   * loop or a message sent to an isolate
+   * @param error error
+   */
+  static void error(RuntimeError error) {
+    METRICS.runtimeErrors.increment();
+    String message = String.valueOf(error.getMessage()).trim();
+    LongAdder count = METRICS.errorsByMessage.get(message);
+    if (count == null) {
+      if (METRICS.errorsByMessage.size() >= MAX_MESSAGES) message = "other";
+      count = METRICS.errorsByMessage.computeIfAbsent(message, (key) -> new LongAdder());
+    }
+    count.increment();
+  }
+  
+  /**
+   * note an instance made by a script
+   * @param instance instance
+   */
+  static void created(Object instance) {
+    if (ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0) {
+      METRICS.removeCollected();
+      METRICS.sampled.add(new WeakReference<>(instance, METRICS.collected));
+    }
+  }
+  
+  private void removeCollected() {
+    Reference<?> reference;
+    while ((reference = collected.poll()) != null) sampled.remove(reference);
+  }
+
+  @Override
+  public long getScriptsRun() {
+    return scriptsRun.sum();
+  }
+
+  @Override
+  public long getCompiles() {
+    return compiles.sum();
+  }
+
+  @Override
+  public double getCompileTimeMillis() {
+    return compileNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getExecutionTimeMillis() {
+    return executionNanos.sum() / 1e6;
+  }
+
+  @Override
+  public Map<String, Long> getExecutionTimeHistogram() {
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    for (int i = 0; i < BUCKETS.length; i++) {
+      histogram.put(String.valueOf(BUCKETS[i]), executions[i].sum());
+    }
+    histogram.put("+Inf", executions[BUCKETS.length].sum());
+    return histogram;
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return runtimeErrors.sum();
+  }
+
+  @Override
+  public Map<String, Long> getRuntimeErrorsByMessage() {
+    Map<String, Long> counts = new TreeMap<>();
+    errorsByMessage.forEach((message, count) -> counts.put(message, count.sum()));
+    return counts;
+  }
+
+  @Override
+  public long getActiveContexts() {
+    return active.sum();
+  }
+
+  @Override
+  public long getLiveObjects() {
+    removeCollected();
+    return (long)sampled.size() * SAMPLE_EVERY;
+  }
+  
+  /**
+   * @return metrics in the Prometheus text exposition format
+   */
+  public String prometheus() {
+    StringBuilder text = new StringBuilder();
+    metric(text, "sparkle_scripts_run_total", "counter", 
+            "Programs run to the end or to a runtime error.");
+    text.append("sparkle_scripts_run_total ").append(getScriptsRun()).append('\n');
+    
+    metric(text, "sparkle_compiles_total", "counter", 
+            "Sources scanned, parsed and resolved.");
+    text.append("sparkle_compiles_total ").append(getCompiles()).append('\n');
+    
+    metric(text, "sparkle_compile_seconds_total", "counter", 
+            "Time spent compiling.");
+    text.append("sparkle_compile_seconds_total ")
+            .append(compileNanos.sum() / 1e9).append('\n');
+    
+    metric(text, "sparkle_execution_seconds", "histogram", 
+            "Time taken to run programs.");
+    long cumulative = 0;
+    for (int i = 0; i <= BUCKETS.length; i++) {
+      cumulative += executions[i].sum();
+      String bound = i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf";
+      text.append("sparkle_execution_seconds_bucket{le=\"").append(bound)
+              .append("\"} ").append(cumulative).append('\n');
+    }
+    text.append("sparkle_execution_seconds_sum ")
+            .append(executionNanos.sum() / 1e9).append('\n');
+    text.append("sparkle_execution_seconds_count ").append(cumulative).append('\n');
+    
+    metric(text, "sparkle_runtime_errors_total", "counter", 
+            "Runtime errors that stopped a program or callback, by message.");
+    getRuntimeErrorsByMessage().forEach((message, count) -> {
+      text.append("sparkle_runtime_errors_total{message=\"").append(escape(message))
+              .append("\"} ").append(count).append('\n');
+    });
+    
+    metric(text, "sparkle_active_contexts", "gauge", "Programs running now.");
+    text.append("sparkle_active_contexts ").append(getActiveContexts()).append('\n');
+    
+    metric(text, "sparkle_live_objects", "gauge", 
+            "Estimate of script class instances not yet garbage collected.");
+    text.append("sparkle_live_objects ").append(getLiveObjects()).append('\n');
+    return text.toString();
+  }
+  
+  private static void metric(StringBuilder text, String name, String type, String help) {
+    text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+  
+  /**
+   * escape a label value
+   */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
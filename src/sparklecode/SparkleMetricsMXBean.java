@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Map;
+
+/**
+ * Management interface of SparkleMetrics, shown by JConsole and other JMX
+ * clients under sparklecode:type=Metrics
+ * @author Will
+ */
+public interface SparkleMetricsMXBean {
+  /**
+   * @return programs run to the end or to a runtime error
+   */
+  long getScriptsRun();
+  
+  /**
+   * @return sources scanned, parsed and resolved
+   */
+  long getCompiles();
+  
+  /**
+   * @return total time spent compiling
+   */
+  double getCompileTimeMillis();
+  
+  /**
+   * @return total time spent running programs
+   */
+  double getExecutionTimeMillis();
+  
+  /**
+   * @return number of programs that ran within each upper bound in
+   * seconds, not cumulative, "+Inf" for the rest
+   */
+  Map<String, Long> getExecutionTimeHistogram();
+  
+  /**
+   * @return runtime errors that stopped a program or callback
+   */
+  long getRuntimeErrors();
+  
+  /**
+   * @return runtime errors by message
+   */
+  Map<String, Long> getRuntimeErrorsByMessage();
+  
+  /**
+   * @return programs running now
+   */
+  long getActiveContexts();
+  
+  /**
+   * @return estimate of class instances made by scripts that have not been
+   * garbage collected
+   */
+  long getLiveObjects();
+}
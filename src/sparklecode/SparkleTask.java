@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle to a function running on another thread, made by the spawn native
+ * and waited for by join.
+ * Each task runs in its own interpreter, sharing globals and code with the
+ * interpreter that spawned it. Tasks run on virtual threads when the JVM
+ * has them, and on daemon platform threads otherwise.
+ * @author Will
+ */
+class SparkleTask {
+  /**
+   * runs every task, and the functions the event loop runs with async
+   */
+  static final ExecutorService EXECUTOR = createExecutor();
+  
+  /**
+   * result of the function, or the error it stopped with
+   */
+  private final Future<Object> result;
+  
+  /**
+   * start running a function with no arguments
+   * @param interp interpreter calling spawn
+   * @param function function to run
+   */
+  SparkleTask(Interpreter interp, SparkleCallable function) {
+    Interpreter task = interp.fork();
+    this.result = EXECUTOR.submit(() -> {
+      return function.call(task, Collections.emptyList());
+    });
+  }
+  
+  /**
+   * wait for the function to finish
+   * @return return value of the function
+   * @throws RuntimeError error the function stopped with
+   */
+  Object join() {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(null, "Interrupted while joining task. ");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw new RuntimeError(null, "Task failed: " + e.getCause() + ". ");
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+  
+  /**
+   * one virtual thread per task if the JVM supports it (Java 21+), looked
+   * up reflectively so the project still builds for older JVMs, else a
+   * cached pool of daemon threads
+   * @return executor
+   */
+  private static ExecutorService createExecutor() {
+    try {
+      return (ExecutorService)Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "sparkle-task-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+}
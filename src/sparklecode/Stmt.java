@@ -15,6 +15,7 @@ public abstract class Stmt {
     public R visitReturnStmt(Return stmt);
     public R visitVarStmt(Var stmt);
     public R visitWhileStmt(While stmt);
+    public R visitYieldStmt(Yield stmt);
   }
 
   static public class Block extends Stmt {
@@ -75,6 +76,13 @@ public abstract class Stmt {
     final Token name;
     final List<Token> parameters;
     final List<Stmt> body;
+
+    // set by the resolver: does the body assign to a local variable of an enclosing scope
+    boolean assignsCaptured = false;
+    // set by the resolver: does the body yield, making calls return a generator
+    boolean isGenerator = false;
+    // set by the resolver: does the body await, making calls return a future
+    boolean isAsync = false;
   }
 
   static public class If extends Stmt {
@@ -152,5 +160,23 @@ public abstract class Stmt {
     final Stmt body;
   }
 
+  static public class Yield extends Stmt {
+    Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+  }
+
+  // set by the resolver when tracing: trace entry with the kind, line and number of the statement
+  long trace;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the last operations each thread ran, to see what led up to a
+ * runtime error without adding prints that change timing. Every statement
+ * run, call returned from and runtime error raised is written as a single
+ * long into a ring buffer made once for each thread, so recording does not
+ * allocate. A runtime error remembers the buffer of the thread it was
+ * raised on and how far it had got, and the entries up to there are
+ * printed when the error stops a program, even if it is reported on
+ * another thread. A script can print its own thread's buffer by calling
+ * dumpTrace().
+ * 
+ * Each entry holds what happened in its top 4 bits, the statement kind or
+ * value type in the next 4, the line in the next 24 and the number of the
+ * statement, or of the called function's declaration, in the low 32.
+ * The resolver numbers the statements of a program and works out their
+ * entries, like it works out where variables are, so recording a
+ * statement is a field read and an array store.
+ * 
+ * Tracing is switched on by the sparkle.trace system property, read once
+ * into a constant so normal runs leave it out. sparkle.trace.size sets the
+ * entries kept for each thread, 4096 by default. The command line sets
+ * tracing with the -trace option.
+ * @author Will
+ */
+class Tracer {
+  /**
+   * are operations being traced
+   */
+  static final boolean ENABLED = Boolean.getBoolean("sparkle.trace");
+  
+  /**
+   * entries kept for each thread, a power of two
+   */
+  private static final int SIZE = Integer.highestOneBit(
+          Math.max(16, Integer.getInteger("sparkle.trace.size", 4096)));
+  
+  private static final int STATEMENT = 1;
+  private static final int CALL = 2;
+  private static final int ERROR = 3;
+  
+  private static final String[] STATEMENTS = {
+    "", "block", "class", "expression", "fn", "if", "print", "return", 
+    "var", "while", "yield"
+  };
+  
+  private static final String[] TYPES = {
+    "nil", "bool", "number", "string", "instance", "function", "class", 
+    "other"
+  };
+  
+  private static final AtomicInteger NUMBERS = new AtomicInteger();
+  
+  /**
+   * names of numbered functions, to show which function a call was to
+   */
+  private static final Map<Integer, String> FUNCTIONS = new ConcurrentHashMap<>();
+  
+  private static final ThreadLocal<Buffer> BUFFERS = 
+          ThreadLocal.withInitial(Buffer::new);
+  
+  /**
+   * ring buffer of one thread's entries
+   */
+  static final class Buffer {
+    final Thread thread = Thread.currentThread();
+    private final long[] entries = new long[SIZE];
+    private long next = 0;
+    
+    /**
+     * record an entry, overwriting the oldest once full
+     * @param entry entry
+     */
+    void add(long entry) {
+      entries[(int)(next++ & (SIZE - 1))] = entry;
+    }
+    
+    /**
+     * @return number of entries recorded so far
+     */
+    long recorded() {
+      return next;
+    }
+  }
+  
+  private Tracer() {
+  }
+  
+  /**
+   * @return buffer of the current thread
+   */
+  static Buffer buffer() {
+    return BUFFERS.get();
+  }
+  
+  /**
+   * number the statements of a program and work out their entries, if
+   * it has not been done already, called by the resolver
+   * @param statements top level statements
+   */
+  static synchronized void number(List<Stmt> statements) {
+    boolean numbered = true;
+    for (Stmt stmt : statements) numbered &= stmt.trace != 0;
+    if (numbered) return;
+    
+    LineCounter.Lines lines = new LineCounter.Lines();
+    statements.forEach(lines::statement);
+    lines.lines.forEach((stmt, line) -> {
+      if (stmt.trace != 0) return;
+      int number = NUMBERS.incrementAndGet();
+      stmt.trace = entry(STATEMENT, kind(stmt), Math.max(line, 0), number);
+      if (stmt instanceof Stmt.Function) {
+        FUNCTIONS.put(number, ((Stmt.Function)stmt).name.lexeme);
+      }
+    });
+  }
+  
+  private static long entry(int event, int kind, int line, int number) {
+    return (long)event << 60 | (long)(kind & 0xF) << 56 
+            | (long)(line & 0xFFFFFF) << 32 | (number & 0xFFFFFFFFL);
+  }
+  
+  /**
+   * entry for returning from a call
+   * @param line line of the call
+   * @param callee what was called
+   * @param result value it returned
+   * @return entry
+   */
+  static long call(int line, Object callee, Object result) {
+    int number = 0;
+    if (callee instanceof SparkleFunction) {
+      number = (int)((SparkleFunction)callee).declaration().trace;
+    }
+    return entry(CALL, type(result), line, number);
+  }
+  
+  /**
+   * record a runtime error on the current thread
+   * @param line line of the error
+   */
+  static void error(int line) {
+    buffer().add(entry(ERROR, 0, line, 0));
+  }
+  
+  /**
+   * print the entries of the current thread, oldest first
+   * @param out where to print
+   */
+  static void dump(PrintStream out) {
+    Buffer buffer = buffer();
+    dump(out, buffer, buffer.recorded());
+  }
+  
+  /**
+   * print the entries a thread recorded before some point, oldest first.
+   * the thread may have gone on recording, entries it has written over
+   * since are left out
+   * @param out where to print
+   * @param buffer buffer of the thread
+   * @param end number of entries the thread had recorded at that point
+   */
+  static void dump(PrintStream out, Buffer buffer, long end) {
+    long start = Math.max(0, end - SIZE);
+    long[] entries = new long[(int)(end - start)];
+    for (long i = start; i < end; i++) {
+      entries[(int)(i - start)] = buffer.entries[(int)(i & (SIZE - 1))];
+    }
+    // entries the thread wrote over while they were being copied
+    long kept = Math.max(start, buffer.next - SIZE);
+    
+    StringBuilder text = new StringBuilder();
+    text.append("trace of ").append(buffer.thread.getName()).append(", last ")
+            .append(Math.max(0, end - kept)).append(" of ").append(end)
+            .append(" entries\n");
+    for (long i = kept; i < end; i++) {
+      long entry = entries[(int)(i - start)];
+      int event = (int)(entry >>> 60);
+      int kind = (int)(entry >>> 56) & 0xF;
+      int line = (int)(entry >>> 32) & 0xFFFFFF;
+      int number = (int)entry;
+      
+      text.append(String.format("  line %-5d ", line));
+      switch (event) {
+        case STATEMENT:
+          text.append('#').append(number).append(' ').append(STATEMENTS[kind]);
+          break;
+        case CALL:
+          String function = FUNCTIONS.get(number);
+          text.append("call ").append(function == null ? "native" : function)
+                  .append(" returned ").append(TYPES[kind]);
+          break;
+        default:
+          text.append("error");
+      }
+      text.append('\n');
+    }
+    out.print(text);
+  }
+  
+  private static int kind(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) return 1;
+    if (stmt instanceof Stmt.Class) return 2;
+    if (stmt instanceof Stmt.Expression) return 3;
+    if (stmt instanceof Stmt.Function) return 4;
+    if (stmt instanceof Stmt.If) return 5;
+    if (stmt instanceof Stmt.Print) return 6;
+    if (stmt instanceof Stmt.Return) return 7;
+    if (stmt instanceof Stmt.Var) return 8;
+    if (stmt instanceof Stmt.While) return 9;
+    return 10;
+  }
+  
+  private static int type(Object value) {
+    if (value == null) return 0;
+    if (value instanceof Boolean) return 1;
+    if (value instanceof Double) return 2;
+    if (value instanceof String) return 3;
+    if (value instanceof SparkleInstance) return 4;
+    if (value instanceof SparkleClass) return 6;
+    if (value instanceof SparkleCallable) return 5;
+    return 7;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package sparklecode;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the types seen at each binary operator, property get, call and
+ * global variable in a script, for a report explaining what makes it slow:
+ * property gets and calls that see many classes or functions, operators
+ * that see mixed types, arithmetic that boxes a new number every time and
+ * global variables that are looked up by name or assigned over and over.
+ * 
+ * Recording is switched on by the sparkle.explain system property, read
+ * once into a constant so normal runs leave it out. The command line sets
+ * it with the -explain option.
+ * @author Will
+ */
+class TypeFeedback {
+  /**
+   * is type feedback being recorded
+   */
+  static final boolean ENABLED = Boolean.getBoolean("sparkle.explain");
+  
+  /**
+   * more types than this at one site is megamorphic, two up to this is
+   * polymorphic
+   */
+  private static final int POLYMORPHIC_LIMIT = 4;
+  
+  /**
+   * sites listed in each part of the report
+   */
+  private static final int TOP = 10;
+  
+  /**
+   * global assignments in a loop that run at least this often are noted
+   */
+  private static final long HOT_ASSIGNMENTS = 1000;
+  
+  /**
+   * what one expression has seen
+   */
+  private static class Site {
+    final String kind;
+    final String what;
+    final int line;
+    final LongAdder count = new LongAdder();
+    final Map<String, LongAdder> types = new ConcurrentHashMap<>();
+    
+    /**
+     * numbers made by arithmetic, or lookups by name for globals
+     */
+    final LongAdder extra = new LongAdder();
+    
+    /**
+     * an assignment inside a while loop
+     */
+    volatile boolean loop;
+
+    Site(String kind, String what, int line) {
+      this.kind = kind;
+      this.what = what;
+      this.line = line;
+    }
+    
+    void add(String type) {
+      count.increment();
+      types.computeIfAbsent(type, (key) -> new LongAdder()).increment();
+    }
+    
+    /**
+     * @return types seen, most common first
+     */
+    String types() {
+      List<Map.Entry<String, LongAdder>> entries = new ArrayList<>(types.entrySet());
+      entries.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+      StringBuilder text = new StringBuilder();
+      for (Map.Entry<String, LongAdder> entry : entries) {
+        if (text.length() > 0) text.append(", ");
+        text.append(entry.getKey()).append(' ').append(entry.getValue().sum());
+      }
+      return text.toString();
+    }
+  }
+  
+  private static final Map<Expr, Site> SITES = new ConcurrentHashMap<>();
+  
+  /**
+   * global assignments the resolver found inside a while loop of the
+   * function they are in
+   */
+  private static final Set<Expr> LOOPS = Collections.newSetFromMap(
+          new ConcurrentHashMap<>());
+  
+  private TypeFeedback() {
+  }
+  
+  private static Site site(Expr expr, String kind, String what, int line) {
+    return SITES.computeIfAbsent(expr, (key) -> new Site(kind, what, line));
+  }
+  
+  /**
+   * record the operand types of a binary operator
+   * @param expr binary expression
+   * @param left left operand
+   * @param right right operand
+   */
+  static void binary(Expr.Binary expr, Object left, Object right) {
+    Site site = site(expr, "operator", expr.operator.lexeme, expr.operator.line);
+    site.add(type(left) + " " + expr.operator.lexeme + " " + type(right));
+    switch (expr.operator.type) {
+      case MINUS: case SLASH: case STAR: case PLUS:
+        if (left instanceof Double && right instanceof Double) site.extra.increment();
+        break;
+      default:
+        break;
+    }
+  }
+  
+  /**
+   * record the object a property was read from
+   * @param expr get expression
+   * @param object object
+   */
+  static void get(Expr.Get expr, Object object) {
+    site(expr, "get", "." + expr.name.lexeme, expr.name.line).add(type(object));
+  }
+  
+  /**
+   * record what was called
+   * @param expr call expression
+   * @param callee value being called
+   */
+  static void call(Expr.Call expr, Object callee) {
+    String target;
+    if (callee instanceof SparkleFunction) {
+      SparkleFunction function = (SparkleFunction)callee;
+      target = function.name() + ":" + function.line();
+    } else if (callee instanceof SparkleClass) {
+      target = "class " + ((SparkleClass)callee).name;
+    } else {
+      target = String.valueOf(callee);
+    }
+    site(expr, "call", "()", expr.paren.line).add(target);
+  }
+  
+  /**
+   * record a global variable being read or assigned
+   * @param expr variable or assignment expression
+   * @param name variable name
+   */
+  static void global(Expr expr, Token name) {
+    String kind = expr instanceof Expr.Assign ? "assign" : "read";
+    Site site = site(expr, kind, name.lexeme, name.line);
+    site.count.increment();
+    if (LOOPS.contains(expr)) site.loop = true;
+  }
+  
+  /**
+   * mark a global assignment as being inside a loop, called by the
+   * resolver
+   * @param expr assignment expression
+   */
+  static void loop(Expr.Assign expr) {
+    LOOPS.add(expr);
+  }
+  
+  /**
+   * record a global variable being found by name because the expression
+   * did not have its cell or the cell was out of date
+   * @param expr variable or assignment expression
+   * @param name variable name
+   */
+  static void lookup(Expr expr, Token name) {
+    String kind = expr instanceof Expr.Assign ? "assign" : "read";
+    site(expr, kind, name.lexeme, name.line).extra.increment();
+  }
+  
+  private static String type(Object value) {
+    if (value == null) return "nil";
+    if (value instanceof Double) return "number";
+    if (value instanceof String) return "string";
+    if (value instanceof Boolean) return "bool";
+    if (value instanceof SparkleInstance) {
+      return ((SparkleInstance)value).klass().name;
+    }
+    if (value instanceof SparkleCallable) return "function";
+    return value.getClass().getSimpleName();
+  }
+  
+  /**
+   * write the report
+   * @param out where to write
+   */
+  static void writeReport(PrintStream out) {
+    List<Site> sites = new ArrayList<>(SITES.values());
+    sites.sort((a, b) -> Long.compare(b.count.sum(), a.count.sum()));
+    
+    out.println("Polymorphic property gets and calls");
+    out.println("  sites seeing one class or function are easier to follow and to speed up");
+    int listed = 0;
+    for (Site site : sites) {
+      if (listed == TOP) break;
+      if (!(site.kind.equals("get") || site.kind.equals("call")) 
+              || site.types.size() < 2) continue;
+      String morphism = site.types.size() > POLYMORPHIC_LIMIT 
+              ? "megamorphic" : "polymorphic";
+      out.println(String.format("  line %-5d %-5s %-16s %-12s %10d  %s", 
+              site.line, site.kind, site.what, morphism, site.count.sum(), 
+              site.types()));
+      listed++;
+    }
+    if (listed == 0) out.println("  none");
+    
+    out.println();
+    out.println("Operators seeing mixed types");
+    listed = 0;
+    for (Site site : sites) {
+      if (listed == TOP) break;
+      if (!site.kind.equals("operator") || site.types.size() < 2) continue;
+      out.println(String.format("  line %-5d %-3s %10d  %s", site.line, 
+              site.what, site.count.sum(), site.types()));
+      listed++;
+    }
+    if (listed == 0) out.println("  none");
+    
+    out.println();
+    out.println("Arithmetic boxing the most numbers");
+    List<Site> boxing = new ArrayList<>();
+    for (Site site : sites) {
+      if (site.kind.equals("operator") && site.extra.sum() > 0) boxing.add(site);
+    }
+    boxing.sort((a, b) -> Long.compare(b.extra.sum(), a.extra.sum()));
+    for (Site site : boxing.subList(0, Math.min(TOP, boxing.size()))) {
+      out.println(String.format("  line %-5d %-3s %10d numbers", site.line, 
+              site.what, site.extra.sum()));
+    }
+    if (boxing.isEmpty()) out.println("  none");
+    
+    out.println();
+    out.println("Global variables");
+    out.println("  locals in a function are read from a slot, globals from a shared cell");
+    listed = 0;
+    for (Site site : sites) {
+      if (listed == TOP) break;
+      if (!(site.kind.equals("read") || site.kind.equals("assign"))) continue;
+      String note = "";
+      if (site.loop && site.count.sum() >= HOT_ASSIGNMENTS) {
+        note = "  assigned in a loop, keep it in a local";
+      }
+      out.println(String.format("  line %-5d %-6s %-16s %10d  %d by name%s", 
+              site.line, site.kind, site.what, site.count.sum(), 
+              site.extra.sum(), note));
+      listed++;
+    }
+    if (listed == 0) out.println("  none");
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Will.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import sparklecode.Bench;
+import sparklecode.Context;
+import sparklecode.Engine;
+import sparklecode.Program;
+
+/**
+ * Command-line program to run the bench_*.sc scripts, save how they
+ * performed and compare the results with ones saved earlier.
+ * Each script is compiled once, run a few times untimed so the JVM warms
+ * up, then timed over several runs in fresh contexts. For each script the
+ * median and fastest wall time, the median bytes allocated and the peak
+ * heap are written to a tab separated results file. Allocation is
+ * counted for the running thread only, so work done by spawned tasks is
+ * not included.
+ * 
+ * Given a baseline results file, a script is a regression when its median
+ * time or allocation grows by more than the threshold, and the program
+ * exits with status 1.
+ * @author Will
+ */
+public class BenchRunner {
+  private static final String USAGE = 
+          "Usage: BenchRunner [options] [script.sc ...]\n"
+          + "  -warmup N       untimed runs of each script first (default 3)\n"
+          + "  -runs N         timed runs of each script (default 5)\n"
+          + "  -out FILE       where results are written (default bench_results.tsv)\n"
+          + "  -baseline FILE  results to compare with\n"
+          + "  -threshold P    percent growth counted as a regression (default 10)\n"
+          + "With no scripts, every bench_*.sc in the current directory is run.";
+  
+  private static final String HEADER = 
+          "script\tmedian_ms\tmin_ms\tallocated_bytes\tpeak_heap_bytes";
+  
+  /**
+   * measurements of one script
+   */
+  private static class Result {
+    final String script;
+    final double medianMillis;
+    final double minMillis;
+    final long allocatedBytes;
+    final long peakHeapBytes;
+
+    Result(String script, double medianMillis, double minMillis, 
+            long allocatedBytes, long peakHeapBytes) {
+      this.script = script;
+      this.medianMillis = medianMillis;
+      this.minMillis = minMillis;
+      this.allocatedBytes = allocatedBytes;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+    
+    String line() {
+      return String.format(Locale.ROOT, "%s\t%.3f\t%.3f\t%d\t%d", script, medianMillis, 
+              minMillis, allocatedBytes, peakHeapBytes);
+    }
+  }
+
+  /**
+   * @param args the command line arguments
+   * @throws java.io.IOException
+   */
+  public static void main(String[] args) throws IOException {
+    int warmup = 3;
+    int runs = 5;
+    String out = "bench_results.tsv";
+    String baseline = null;
+    double threshold = 10;
+    List<String> scripts = new ArrayList<>();
+    
+    for (int i = 0; i < args.length; i++) {
+      boolean hasValue = i + 1 < args.length;
+      switch (args[i]) {
+        case "-warmup": if (hasValue) warmup = Integer.parseInt(args[++i]); break;
+        case "-runs": if (hasValue) runs = Integer.parseInt(args[++i]); break;
+        case "-out": if (hasValue) out = args[++i]; break;
+        case "-baseline": if (hasValue) baseline = args[++i]; break;
+        case "-threshold": if (hasValue) threshold = Double.parseDouble(args[++i]); break;
+        default:
+          if (args[i].startsWith("-")) {
+            System.err.println(USAGE);
+            System.exit(64);
+          }
+          scripts.add(args[i]);
+      }
+    }
+    if (runs < 1) {
+      System.err.println(USAGE);
+      System.exit(64);
+    }
+    
+    if (scripts.isEmpty()) {
+      String[] found = new File(".").list((dir, name) -> 
+              name.startsWith("bench_") && name.endsWith(".sc"));
+      if (found != null) {
+        Arrays.sort(found);
+        scripts.addAll(Arrays.asList(found));
+      }
+    }
+    
+    List<Result> results = new ArrayList<>();
+    boolean failed = false;
+    for (String script : scripts) {
+      Result result = measure(script, warmup, runs);
+      if (result == null) {
+        failed = true;
+      } else {
+        results.add(result);
+        System.out.println(result.line());
+      }
+    }
+    
+    List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+    results.forEach((result) -> lines.add(result.line()));
+    Files.write(Paths.get(out), lines, Charset.forName("UTF-8"));
+    System.out.println("Results written to " + out);
+    
+    if (failed) System.exit(2);
+    if (baseline != null && compare(read(baseline), results, threshold)) {
+      System.exit(1);
+    }
+  }
+  
+  /**
+   * run a script, warming up first
+   * @param script path to the script
+   * @param warmup untimed runs
+   * @param runs timed runs
+   * @return measurements, or null if the script did not compile or run
+   * @throws IOException if the script cannot be read
+   */
+  private static Result measure(String script, int warmup, int runs) 
+          throws IOException {
+    String source = new String(Files.readAllBytes(Paths.get(script)), 
+            Charset.defaultCharset());
+    Engine engine = new Engine();
+    Program program = engine.compile(source);
+    if (program.hasErrors()) {
+      System.err.println(script + ": " + program.diagnostics());
+      return null;
+    }
+    
+    PrintStream discard = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    });
+    
+    for (int i = 0; i < warmup; i++) {
+      if (!engine.createContext(discard, System.err).run(program)) return null;
+    }
+    
+    double[] millis = new double[runs];
+    long[] allocated = new long[runs];
+    long peakHeap = 0;
+    for (int i = 0; i < runs; i++) {
+      Context context = engine.createContext(discard, System.err);
+      resetPeakHeap();
+      long allocatedBefore = Bench.allocatedBytes();
+      long start = System.nanoTime();
+      boolean ok = context.run(program);
+      millis[i] = (System.nanoTime() - start) / 1e6;
+      allocated[i] = Bench.allocatedBytes() - allocatedBefore;
+      peakHeap = Math.max(peakHeap, peakHeap());
+      if (!ok) return null;
+    }
+    
+    Arrays.sort(millis);
+    Arrays.sort(allocated);
+    return new Result(script, millis[runs / 2], millis[0], 
+            allocated[runs / 2], peakHeap);
+  }
+  
+  /**
+   * print how results changed from the baseline
+   * @param baseline results saved earlier, by script
+   * @param results new results
+   * @param threshold percent growth counted as a regression
+   * @return true if any script regressed
+   */
+  private static boolean compare(Map<String, Result> baseline, 
+          List<Result> results, double threshold) {
+    boolean regressed = false;
+    System.out.println();
+    System.out.println(String.format(Locale.ROOT, "%-24s %10s %10s %8s %10s", 
+            "script", "base_ms", "new_ms", "time", "alloc"));
+    for (Result result : results) {
+      Result base = baseline.get(result.script);
+      if (base == null) {
+        System.out.println(String.format(Locale.ROOT, "%-24s %10s %10.3f", 
+                result.script, "-", result.medianMillis));
+        continue;
+      }
+      double time = change(base.medianMillis, result.medianMillis);
+      double alloc = change(base.allocatedBytes, result.allocatedBytes);
+      boolean regression = time > threshold || alloc > threshold;
+      regressed |= regression;
+      System.out.println(String.format(Locale.ROOT, "%-24s %10.3f %10.3f %+7.1f%% %+9.1f%%%s", 
+              result.script, base.medianMillis, result.medianMillis, time, 
+              alloc, regression ? "  REGRESSION" : ""));
+    }
+    return regressed;
+  }
+  
+  /**
+   * @return percent change from before to after
+   */
+  private static double change(double before, double after) {
+    if (before == 0) return after == 0 ? 0 : 100;
+    return (after - before) / before * 100;
+  }
+  
+  /**
+   * read a results file
+   * @param path path to the file
+   * @return results by script
+   * @throws IOException if the file cannot be read
+   */
+  private static Map<String, Result> read(String path) throws IOException {
+    Map<String, Result> results = new LinkedHashMap<>();
+    for (String line : Files.readAllLines(Paths.get(path), Charset.forName("UTF-8"))) {
+      if (line.isEmpty() || line.equals(HEADER)) continue;
+      String[] fields = line.split("\t");
+      results.put(fields[0], new Result(fields[0], 
+              Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), 
+              Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+    }
+    return results;
+  }
+  
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+    }
+  }
+  
+  /**
+   * sum of the peak usage of every heap pool since the last reset
+   */
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+    }
+    return peak;
+  }
+}
@@ -45,11 +45,12 @@ public class generateAst {
     
     defineAst(outputDir, "Expr", Arrays.asList(
       "Assign   : Token name, Expr value",
+      "Await    : Token keyword, Expr value",
       "Binary   : Expr left, Token operator, Expr right",
       "Call     : Expr callee, Token paren, List<Expr> arguments",
       "Get      : Expr object, Token name",
       "Grouping : Expr expression",
-      "Literal  : Object value",
+      "Literal  : Object value, int line",
       "Logical  : Expr left, Token operator, Expr right",
       "Set      : Expr object, Token name, Expr value",
       "Super    : Token keyword, Token method",
@@ -67,7 +68,8 @@ public class generateAst {
       "Print      : Expr expression",
       "Return     : Token keyword, Expr value",
       "Var        : Token name, Expr initializer",
-      "While      : Expr condition, Stmt body"
+      "While      : Expr condition, Stmt body",
+      "Yield      : Token keyword, Expr value"
     ));
   }
 
@@ -102,6 +104,23 @@ public class generateAst {
       defineType(writer, baseName, className, fields);
     });
     
+    // resolved variable location, only expressions refer to variables
+    if(baseName.equals("Expr")) {
+      writer.println("");
+      writer.println("  // set by the resolver: environments out to the variable, -1 if global");
+      writer.println("  int depth = -1;");
+      writer.println("  // set by the resolver: slot of the variable in that environment,");
+      writer.println("  // for a global the number of this use among the program's global uses");
+      writer.println("  int slot;");
+    }
+    
+    // what the tracer records each time the statement runs
+    if(baseName.equals("Stmt")) {
+      writer.println("");
+      writer.println("  // set by the resolver when tracing: trace entry with the kind, line and number of the statement");
+      writer.println("  long trace;");
+    }
+    
     // accept method
     writer.println("");
     writer.println("  abstract <R> R accept(Visitor<R> visitor);");
@@ -147,6 +166,17 @@ public class generateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    
+    // found by the resolver, used to check functions are safe to run in parallel
+    if(baseName.equals("Stmt") && className.equals("Function")) {
+      writer.println("");
+      writer.println("    // set by the resolver: does the body assign to a local variable of an enclosing scope");
+      writer.println("    boolean assignsCaptured = false;");
+      writer.println("    // set by the resolver: does the body yield, making calls return a generator");
+      writer.println("    boolean isGenerator = false;");
+      writer.println("    // set by the resolver: does the body await, making calls return a future");
+      writer.println("    boolean isAsync = false;");
+    }
 
     writer.println("  }");
   }